@@ -0,0 +1,245 @@
+package org.concurrency.benchmark;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.concurrency.thread.ConnectionDriver;
+import org.concurrency.thread.ManagedConnectionPool;
+import org.concurrency.thread.DriverConfig;
+import org.concurrency.thread.FastConnectionPool;
+import org.concurrency.thread.LatencyModel;
+import org.concurrency.thread.PartitionedConnectionPool;
+import org.concurrency.thread.PoolConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接池获取/释放连接的JMH基准测试
+ *
+ * 对比ManagedConnectionPool、FastConnectionPool、PartitionedConnectionPool以及commons-dbcp的BasicDataSource，
+ * 所有连接池的连接都通过同一个DriverConfig由ConnectionDriver.createConnection(driver)创建（SimulatedConnection，commit不耗时），
+ * 所以测出来的只是连接池本身的开销。每次操作是一次获取+释放，持有期间消耗holdTokens个CPU token。
+ *
+ * 运行方式（JMH会fork新的JVM运行基准测试，exec:java的classpath传不过去，需要用exec:exec）：
+ * mvn compile exec:exec -Dexec.executable=java -Dexec.args="-cp %classpath org.concurrency.benchmark.ConnectionPoolBenchmark"
+ * 每个线程数的结果以JSON格式写入target/jmh/connection-pool-{threads}t.json，可以用来对比不同版本之间是否有性能回退
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+
+    /**
+     * 获取连接的超时时间
+     */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Param({"ManagedConnectionPool", "FastConnectionPool", "PartitionedConnectionPool", "DBCP"})
+    public String pool;
+
+    @Param({"16"})
+    public int poolSize;
+
+    /**
+     * 持有连接期间消耗的CPU token，0表示获取后立即释放
+     */
+    @Param({"0", "100"})
+    public long holdTokens;
+
+    private PoolAdapter adapter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        DriverConfig driver = new DriverConfig();
+        driver.setLatency(DriverConfig.Operation.COMMIT, LatencyModel.none());
+        adapter = createAdapter(pool, poolSize, TIMEOUT_MILLIS, driver);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        adapter.close();
+    }
+
+    @Benchmark
+    public void acquireRelease(Blackhole blackhole) throws Exception {
+        Connection connection = adapter.acquire();
+        if (connection == null) {
+            throw new IllegalStateException("timed out acquiring connection from " + pool);
+        }
+        try {
+            if (holdTokens > 0) {
+                Blackhole.consumeCPU(holdTokens);
+            }
+            blackhole.consume(connection);
+        } finally {
+            adapter.release(connection);
+        }
+    }
+
+    /**
+     * 不同连接池实现的统一入口，新增连接池实现时在这里加一个分支
+     */
+    interface PoolAdapter {
+
+        /**
+         * 在创建adapter时指定的超时时间内获取连接
+         * @return 超时返回null
+         * @throws Exception
+         */
+        Connection acquire() throws Exception;
+
+        void release(Connection connection) throws SQLException;
+
+        void close() throws SQLException;
+    }
+
+    /**
+     * @param name
+     * @param poolSize
+     * @param timeoutMillis 获取连接的超时时间，DBCP只能在创建时配置，所以所有连接池都在这里统一指定
+     * @param driver 所有连接池的连接都由ConnectionDriver.createConnection(driver)创建
+     * @return
+     * @throws SQLException
+     */
+    static PoolAdapter createAdapter(String name, int poolSize, long timeoutMillis, DriverConfig driver) throws SQLException {
+        switch (name) {
+            case "ManagedConnectionPool": {
+                PoolConfig config = new PoolConfig(poolSize, poolSize);
+                config.setConnectionFactory(() -> ConnectionDriver.createConnection(driver));
+                ManagedConnectionPool connectionPool = new ManagedConnectionPool(config);
+                return new PoolAdapter() {
+                    @Override
+                    public Connection acquire() throws InterruptedException {
+                        return connectionPool.fetchConnection(timeoutMillis);
+                    }
+
+                    @Override
+                    public void release(Connection connection) {
+                        connectionPool.releaseConnection(connection);
+                    }
+
+                    @Override
+                    public void close() {
+                        connectionPool.shutdown();
+                    }
+                };
+            }
+            case "FastConnectionPool": {
+                FastConnectionPool fastPool = new FastConnectionPool(poolSize, () -> ConnectionDriver.createConnection(driver));
+                return new PoolAdapter() {
+                    @Override
+                    public Connection acquire() throws InterruptedException {
+                        return fastPool.fetchConnection(timeoutMillis);
+                    }
+
+                    @Override
+                    public void release(Connection connection) {
+                        fastPool.releaseConnection(connection);
+                    }
+
+                    @Override
+                    public void close() {
+                        fastPool.shutdown();
+                    }
+                };
+            }
+            case "PartitionedConnectionPool": {
+                PartitionedConnectionPool partitionedPool = new PartitionedConnectionPool(poolSize, () -> ConnectionDriver.createConnection(driver));
+                return new PoolAdapter() {
+                    @Override
+                    public Connection acquire() throws InterruptedException {
+                        return partitionedPool.fetchConnection(timeoutMillis);
+                    }
+
+                    @Override
+                    public void release(Connection connection) {
+                        partitionedPool.releaseConnection(connection);
+                    }
+
+                    @Override
+                    public void close() {
+                        partitionedPool.shutdown();
+                    }
+                };
+            }
+            case "DBCP": {
+                BasicDataSource dataSource = new BasicDataSource() {
+                    @Override
+                    protected ConnectionFactory createConnectionFactory() {
+                        return () -> ConnectionDriver.createConnection(driver);
+                    }
+                };
+                dataSource.setInitialSize(poolSize);
+                dataSource.setMaxActive(poolSize);
+                dataSource.setMaxIdle(poolSize);
+                //与其他连接池一致，小于等于0表示一直等待（DBCP用负数表示）
+                dataSource.setMaxWait(timeoutMillis > 0 ? timeoutMillis : -1);
+                return new PoolAdapter() {
+                    @Override
+                    public Connection acquire() throws SQLException {
+                        try {
+                            return dataSource.getConnection();
+                        } catch (SQLException e) {
+                            //超时时DBCP抛出以NoSuchElementException为cause的SQLException，与其他连接池一样返回null
+                            if (e.getCause() instanceof NoSuchElementException) {
+                                return null;
+                            }
+                            throw e;
+                        }
+                    }
+
+                    @Override
+                    public void release(Connection connection) throws SQLException {
+                        connection.close();
+                    }
+
+                    @Override
+                    public void close() throws SQLException {
+                        dataSource.close();
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown pool: " + name);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        File dir = new File("target/jmh");
+        dir.mkdirs();
+        for (int threads : new int[] {1, 4, 16, 64, 256}) {
+            Options options = new OptionsBuilder()
+                    .include(ConnectionPoolBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "connection-pool-" + threads + "t.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
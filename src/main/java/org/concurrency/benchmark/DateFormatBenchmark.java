@@ -0,0 +1,207 @@
+package org.concurrency.benchmark;
+
+import org.concurrency.threadlocal.SafeSimpleDateFormatDemo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * "yyyy-MM-dd HH:mm:ss"解析和格式化的JMH基准测试
+ *
+ * 对比SafeSimpleDateFormatDemo中的几种线程安全的用法以及DateTimeFormatter和TimestampParser/TimestampFormatter：
+ * 1. Synchronized：方法1，共享一个SimpleDateFormat，加锁
+ * 2. LocalInstance：方法2，每次调用创建一个SimpleDateFormat
+ * 3. ThreadLocal：方法3，ThreadLocal.initialValue创建，注意方法3的格式是"yyyy-MM-dd"（和《阿里巴巴Java开发手册》中的示例一致），
+ *    解析时只读取前10个字符，格式化的结果也短得多，和其他方式不是严格可比的
+ * 4. DateUtils：方法4，DateUtils.parse/format，第一次使用时创建并放入ThreadLocal
+ * 5. DateTimeFormatter：java.time，本身是不可变的，可以共享
+ * 6. Custom：方法5，TimestampParser直接返回epoch毫秒；TimestampFormatter写入每个线程复用的StringBuilder，
+ *    再toString()，和其他方式一样每次格式化得到一个新的String
+ *
+ * 直接调用SafeSimpleDateFormatDemo中方法1-3、5的parseX/formatDateX以及DateUtils的parse/format，测量范围内没有System.out.println。
+ * 格式化时每次使用不同的毫秒数，大约每1000次调用跨过一秒，接近日志场景下的分布。
+ *
+ * 运行方式（JMH会fork新的JVM运行基准测试，exec:java的classpath传不过去，需要用exec:exec）：
+ * mvn compile exec:exec -Dexec.executable=java -Dexec.args="-cp %classpath org.concurrency.benchmark.DateFormatBenchmark"
+ * 每个线程数的结果（吞吐量、延迟分布以及GC profiler统计的每次操作分配的字节数）以JSON格式写入target/jmh/date-format-{threads}t.json
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateFormatBenchmark {
+
+    private static final String TEXT = "2019-05-13 14:00:00";
+    private static final long EPOCH_MILLIS = 1557727200000L;
+
+    @Param({"Synchronized", "LocalInstance", "ThreadLocal", "DateUtils", "DateTimeFormatter", "Custom"})
+    public String strategy;
+
+    private Strategy impl;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        impl = createStrategy(strategy);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) throws ParseException {
+        blackhole.consume(impl.parse(TEXT));
+    }
+
+    @Benchmark
+    public void format(ThreadState state, Blackhole blackhole) {
+        //每次调用前进1毫秒
+        long millis = EPOCH_MILLIS + (state.counter++ & 0xFFFFF);
+        blackhole.consume(impl.format(millis, state));
+    }
+
+    /**
+     * 每个线程各自的计数器和可复用的StringBuilder
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        long counter;
+        final StringBuilder sb = new StringBuilder(32);
+    }
+
+    /**
+     * 不同方式的统一入口
+     */
+    interface Strategy {
+
+        /**
+         * @return epoch毫秒，返回基本类型避免装箱的分配计入结果
+         */
+        long parse(String text) throws ParseException;
+
+        Object format(long epochMillis, ThreadState state);
+    }
+
+    static Strategy createStrategy(String name) {
+        switch (name) {
+            case "Synchronized":
+                return new Strategy() {
+                    @Override
+                    public long parse(String text) throws ParseException {
+                        return SafeSimpleDateFormatDemo.parse(text).getTime();
+                    }
+
+                    @Override
+                    public Object format(long epochMillis, ThreadState state) {
+                        return SafeSimpleDateFormatDemo.formatDate(new Date(epochMillis));
+                    }
+                };
+            case "LocalInstance":
+                return new Strategy() {
+                    @Override
+                    public long parse(String text) throws ParseException {
+                        return SafeSimpleDateFormatDemo.parse2(text).getTime();
+                    }
+
+                    @Override
+                    public Object format(long epochMillis, ThreadState state) {
+                        return SafeSimpleDateFormatDemo.formatDate2(new Date(epochMillis));
+                    }
+                };
+            case "ThreadLocal":
+                return new Strategy() {
+                    @Override
+                    public long parse(String text) throws ParseException {
+                        return SafeSimpleDateFormatDemo.parse3(text).getTime();
+                    }
+
+                    @Override
+                    public Object format(long epochMillis, ThreadState state) {
+                        return SafeSimpleDateFormatDemo.formatDate3(new Date(epochMillis));
+                    }
+                };
+            case "DateUtils":
+                return new Strategy() {
+                    @Override
+                    public long parse(String text) throws ParseException {
+                        return SafeSimpleDateFormatDemo.DateUtils.parse(text).getTime();
+                    }
+
+                    @Override
+                    public Object format(long epochMillis, ThreadState state) {
+                        return SafeSimpleDateFormatDemo.DateUtils.format(new Date(epochMillis));
+                    }
+                };
+            case "DateTimeFormatter": {
+                DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+                ZoneId zone = ZoneId.systemDefault();
+                return new Strategy() {
+                    @Override
+                    public long parse(String text) {
+                        return LocalDateTime.parse(text, formatter).atZone(zone).toInstant().toEpochMilli();
+                    }
+
+                    @Override
+                    public Object format(long epochMillis, ThreadState state) {
+                        return formatter.format(Instant.ofEpochMilli(epochMillis).atZone(zone));
+                    }
+                };
+            }
+            case "Custom":
+                return new Strategy() {
+                    @Override
+                    public long parse(String text) {
+                        return SafeSimpleDateFormatDemo.parse5(text);
+                    }
+
+                    @Override
+                    public Object format(long epochMillis, ThreadState state) {
+                        StringBuilder sb = state.sb;
+                        sb.setLength(0);
+                        SafeSimpleDateFormatDemo.formatDate5(epochMillis, sb);
+                        return sb.toString();
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unknown strategy: " + name);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        File dir = new File("target/jmh");
+        dir.mkdirs();
+        for (int threads : new int[] {1, 4, 16, 64, 100}) {
+            Options options = new OptionsBuilder()
+                    .include(DateFormatBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(dir, "date-format-" + threads + "t.json").getPath())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package org.concurrency.benchmark;
+
+import org.concurrency.threadlocal.FastThreadLocal;
+import org.concurrency.threadlocal.FastThreadLocalThread;
+import org.concurrency.threadlocal.MyThreadLocal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程本地变量的JMH基准测试
+ *
+ * 对比ThreadLocal、MyThreadLocal、FastThreadLocal以及Synchronized：Synchronized不是线程本地变量，
+ * 而是所有线程共用的一个holder，get/set都用synchronized保护（threadlocal.md中"时间换空间"的做法），线程越多竞争越激烈。
+ * setGet每次操作是一次set + 一次get，线程有两种模式：
+ * 1. setGetPooled：直接在JMH的工作线程中反复执行，对应请求处理线程池中的线程，本地变量只初始化一次
+ * 2. setGetShortLived：每批BATCH次操作新建一个和JMH工作线程同类的线程，执行完就结束，对应"每个请求一个线程"，
+ *    包含创建线程、初始化以及线程结束后回收的开销
+ * get只测读取，同样在JMH的工作线程中执行
+ *
+ * 每个线程数运行两遍：
+ * 1. 默认通过jmh.executor=CUSTOM让JMH用FastThreadLocalExecutor创建工作线程，所有线程都是FastThreadLocalThread
+ *    （对其他实现来说就是普通的Thread），FastThreadLocal走的是数组下标的快速路径
+ * 2. 用jmh.executor=PLATFORM换回普通的Thread，FastThreadLocal走的是退化路径（放在一个普通ThreadLocal中的InternalThreadLocalMap）
+ * setGetPooled不经过任何任务提交，吞吐量以及GC profiler统计的分配都只来自本地变量本身。
+ *
+ * 运行方式（JMH会fork新的JVM运行基准测试，exec:java的classpath传不过去，需要用exec:exec）：
+ * mvn compile exec:exec -Dexec.executable=java -Dexec.args="-cp %classpath org.concurrency.benchmark.ThreadLocalBenchmark"
+ * 每个线程数的结果（包括GC profiler统计的每次操作分配的字节数）以JSON格式写入target/jmh/thread-local-{threads}t.json，
+ * 普通Thread的结果写入target/jmh/thread-local-{threads}t-plain.json；参数为footprint时只运行内存占用测试
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djmh.executor=CUSTOM",
+        "-Djmh.executor.class=org.concurrency.benchmark.ThreadLocalBenchmark$FastThreadLocalExecutor"})
+@State(Scope.Benchmark)
+public class ThreadLocalBenchmark {
+
+    /**
+     * setGetShortLived每个线程执行的操作数
+     */
+    private static final int BATCH = 1024;
+
+    /**
+     * set的值，不用装箱的Integer，避免分配内存影响GC profiler的统计
+     */
+    private static final Object VALUE = new Object();
+
+    @Param({"ThreadLocal", "MyThreadLocal", "FastThreadLocal", "Synchronized"})
+    public String impl;
+
+    private Holder holder;
+    private Runnable task;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        holder = createHolder(impl);
+        task = () -> {
+            Holder h = holder;
+            for (int i = 0; i < BATCH; i++) {
+                h.set(VALUE);
+                if (h.get() != VALUE) {
+                    throw new IllegalStateException("unexpected value from " + impl);
+                }
+            }
+        };
+    }
+
+    /**
+     * 每次调用只做一次set + get，由JMH循环调用：如果在方法里循环，FastThreadLocal的数组下标访问在循环中不变，会被JIT提到循环外面
+     */
+    @Benchmark
+    public Object setGetPooled() {
+        Holder h = holder;
+        h.set(VALUE);
+        return h.get();
+    }
+
+    /**
+     * 新建的线程和当前的JMH工作线程同类，普通Thread的一遍测到的是FastThreadLocal的退化路径
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void setGetShortLived() throws InterruptedException {
+        Thread thread = Thread.currentThread() instanceof FastThreadLocalThread ? new FastThreadLocalThread(task) : new Thread(task);
+        thread.start();
+        thread.join();
+    }
+
+
+    /**
+     * 只读的情况：值已经设置好，只测get()
+     */
+    @Benchmark
+    public Object get(GetState state) {
+        return state.holder.get();
+    }
+
+    /**
+     * 每个JMH线程在开始前设置一次值
+     */
+    @State(Scope.Thread)
+    public static class GetState {
+        Holder holder;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadLocalBenchmark benchmark) {
+            holder = benchmark.holder;
+            holder.set(VALUE);
+        }
+    }
+
+    /**
+     * JMH的工作线程池（jmh.executor.class），JMH通过(int, String)构造函数反射创建，线程都是FastThreadLocalThread
+     */
+    public static class FastThreadLocalExecutor extends ThreadPoolExecutor {
+
+        public FastThreadLocalExecutor(int maxThreads, String prefix) {
+            super(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new FastThreadLocalThread(r, prefix + "-jmh-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * 不同实现的统一入口
+     */
+    interface Holder {
+
+        Object get();
+
+        void set(Object value);
+    }
+
+    static Holder createHolder(String name) {
+        switch (name) {
+            case "ThreadLocal": {
+                ThreadLocal<Object> threadLocal = new ThreadLocal<>();
+                return new Holder() {
+                    @Override
+                    public Object get() {
+                        return threadLocal.get();
+                    }
+
+                    @Override
+                    public void set(Object value) {
+                        threadLocal.set(value);
+                    }
+                };
+            }
+            case "MyThreadLocal": {
+                MyThreadLocal<Object> myThreadLocal = new MyThreadLocal<>();
+                return new Holder() {
+                    @Override
+                    public Object get() {
+                        return myThreadLocal.get();
+                    }
+
+                    @Override
+                    public void set(Object value) {
+                        myThreadLocal.set(value);
+                    }
+                };
+            }
+            case "FastThreadLocal": {
+                FastThreadLocal<Object> fastThreadLocal = new FastThreadLocal<>();
+                return new Holder() {
+                    @Override
+                    public Object get() {
+                        return fastThreadLocal.get();
+                    }
+
+                    @Override
+                    public void set(Object value) {
+                        fastThreadLocal.set(value);
+                    }
+                };
+            }
+            case "Synchronized": {
+                //所有线程共用这一个holder，不是线程本地的
+                return new Holder() {
+                    private Object value;
+
+                    @Override
+                    public synchronized Object get() {
+                        return value;
+                    }
+
+                    @Override
+                    public synchronized void set(Object value) {
+                        this.value = value;
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown impl: " + name);
+        }
+    }
+
+    /**
+     * 内存占用：threadCount个线程各自设置instances个本地变量，线程保持存活，统计堆内存的增量
+     *
+     * FastThreadLocal的下标只增不减，这里的instances个实例会一直占用数组的位置，所以放在JMH之外单独运行
+     */
+    public static void footprint(int instances, int threadCount) throws InterruptedException {
+        System.out.printf("====== footprint: %d instances x %d threads ======%n", instances, threadCount);
+        for (String name : new String[] {"ThreadLocal", "MyThreadLocal", "FastThreadLocal", "Synchronized"}) {
+            long bytes = footprintOf(name, instances, threadCount);
+            System.out.printf("%-16s %10d KB %8.1f bytes/entry%n", name, bytes / 1024, (double) bytes / instances / threadCount);
+        }
+    }
+
+    /**
+     * 单独一个方法，返回之后上一个实现的holders和线程都不再被引用，不会算进下一个实现的内存占用
+     */
+    private static long footprintOf(String name, int instances, int threadCount) throws InterruptedException {
+        //上一轮刚结束的线程及其引用的对象不一定能在第一轮GC中回收，先GC一轮再统计
+        usedMemory();
+        long before = usedMemory();
+        Holder[] holders = new Holder[instances];
+        for (int i = 0; i < instances; i++) {
+            holders[i] = createHolder(name);
+        }
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread[] workers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            workers[t] = new FastThreadLocalThread(() -> {
+                //所有线程共享同一个值对象，只统计存储结构本身的开销
+                for (Holder holder : holders) {
+                    holder.set(VALUE);
+                }
+                ready.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers[t].start();
+        }
+        ready.await();
+        long after = usedMemory();
+        done.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return after - before;
+    }
+
+    /**
+     * 反复GC直到已用内存不再减少
+     */
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        while (true) {
+            System.gc();
+            Thread.sleep(50);
+            long current = runtime.totalMemory() - runtime.freeMemory();
+            if (current >= used) {
+                return current;
+            }
+            used = current;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException, InterruptedException {
+        if (args.length > 0 && "footprint".equals(args[0])) {
+            footprint(1000, 64);
+            return;
+        }
+        File dir = new File("target/jmh");
+        dir.mkdirs();
+        for (int threadCount : new int[] {1, 4, 16, 64, 128}) {
+            //工作线程为FastThreadLocalThread，使用@Fork中的jmh.executor=CUSTOM
+            run(new OptionsBuilder(), threadCount, new File(dir, "thread-local-" + threadCount + "t.json"));
+            //工作线程为普通的Thread，覆盖@Fork中的jvmArgsAppend
+            run(new OptionsBuilder().jvmArgsAppend("-Djmh.executor=PLATFORM"), threadCount,
+                    new File(dir, "thread-local-" + threadCount + "t-plain.json"));
+        }
+    }
+
+    private static void run(ChainedOptionsBuilder builder, int threadCount, File result) throws RunnerException {
+        Options options = builder
+                .include(ThreadLocalBenchmark.class.getSimpleName())
+                .threads(threadCount)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,205 @@
+package org.concurrency.thread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限制器：根据观察到的延迟估算系统能承受的并发数，超过限制的请求立即拒绝，而不是排队等到超时
+ *
+ * 采用梯度（gradient）算法，按采样窗口调整limit：
+ * 1. 每个窗口计算平均延迟shortRtt，同时用指数移动平均维护长期延迟longRtt，作为「没有排队」时的基线
+ * 2. gradient = tolerance * longRtt / shortRtt，限制在[0.5, 1]之间：延迟没有明显升高时为1，排队导致延迟升高时小于1
+ * 3. newLimit = limit * gradient + sqrt(limit)，加上的sqrt(limit)是留给limit向上探测的排队空间
+ * 4. 平滑后更新：limit = limit * (1 - smoothing) + newLimit * smoothing
+ *
+ * 窗口内有请求超时（drop）时按AIMD的方式把limit乘以0.9；并发数不到limit的一半时说明请求量本身不大，不增大limit
+ *
+ * 每个请求结束时都要采样，采样只是累加到LongAdder中，不加锁；窗口的时间到了以后，由抢到updating的一个线程汇总并重新计算limit，
+ * 其他线程不等待，继续累加到下一个窗口
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * 延迟升高到基线的多少倍以内不减小limit
+     */
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF_RATIO = 0.9;
+    /**
+     * longRtt的指数移动平均跨越的窗口数，越大基线越稳定
+     */
+    private static final int LONG_WINDOW = 600;
+    /**
+     * 一个采样窗口至少持续的时间和至少包含的请求数
+     */
+    private static final long MIN_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+    /**
+     * 已放行但还没结束的请求数
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * tryAcquire读取的当前限制，只在窗口结束时更新
+     */
+    private volatile int limit;
+
+    /**
+     * 当前窗口的采样，请求结束时累加，窗口结束时清零
+     */
+    private final LongAdder windowRttSum = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAdder windowDrops = new LongAdder();
+    private final LongAccumulator windowMaxInFlight = new LongAccumulator(Long::max, 0);
+    private volatile long windowStart = System.nanoTime();
+    /**
+     * 同一时间只有一个线程重新计算limit
+     */
+    private final AtomicBoolean updating = new AtomicBoolean();
+
+    /**
+     * 以下字段只在updating为true时由重新计算limit的线程读写，updating的CAS和set保证了前后两个线程之间的可见性
+     */
+    private double estimatedLimit;
+    private double longRtt;
+
+    /**
+     * @param initialLimit 初始限制，应当是不会引起排队的并发数，比如连接池大小
+     * @param minLimit
+     * @param maxLimit
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /**
+     * 尝试放行一个请求，放行后必须调用且只调用一次onSuccess、onDropped或onIgnore
+     * @return 已达到limit时返回false，调用方应当立即失败
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * 一次放行占用permits个并发的请求（比如一次获取多个连接），要么全部放行要么全部拒绝，
+     * 放行后每个permit都要调用一次onSuccess、onDropped或onIgnore
+     * @param permits
+     * @return
+     */
+    public boolean tryAcquire(int permits) {
+        while (true) {
+            int current = inFlight.get();
+            if (current + permits > limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + permits)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 请求成功结束
+     * @param rttNanos 请求从开始到结束的耗时
+     */
+    public void onSuccess(long rttNanos) {
+        sample(rttNanos, false);
+    }
+
+    /**
+     * 请求超时，说明系统已经过载
+     */
+    public void onDropped() {
+        sample(0, true);
+    }
+
+    /**
+     * 请求被中断或取消，不参与采样
+     */
+    public void onIgnore() {
+        onIgnore(1);
+    }
+
+    public void onIgnore(int permits) {
+        inFlight.addAndGet(-permits);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void sample(long rttNanos, boolean dropped) {
+        //先记录结束前的并发数，再减去本次请求
+        windowMaxInFlight.accumulate(inFlight.getAndDecrement());
+        if (dropped) {
+            windowDrops.increment();
+        } else {
+            windowRttSum.add(rttNanos);
+            windowSamples.increment();
+        }
+        long now = System.nanoTime();
+        if (now - windowStart < MIN_WINDOW_NANOS || !updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            updateLimit(now);
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    private void updateLimit(long now) {
+        if (windowSamples.sum() + windowDrops.sum() < MIN_WINDOW_SAMPLES) {
+            //请求太少，窗口延长到采样足够为止
+            return;
+        }
+        //清零和其他线程的累加是并发的，清零前后结束的请求可能被算到下一个窗口
+        long rttSum = windowRttSum.sumThenReset();
+        long samples = windowSamples.sumThenReset();
+        long drops = windowDrops.sumThenReset();
+        long maxInFlight = windowMaxInFlight.getThenReset();
+        windowStart = now;
+
+        double newLimit;
+        if (drops > 0) {
+            newLimit = estimatedLimit * BACKOFF_RATIO;
+        } else if (samples == 0) {
+            return;
+        } else {
+            double shortRtt = (double) rttSum / samples;
+            if (longRtt == 0) {
+                longRtt = shortRtt;
+            } else {
+                longRtt += (shortRtt - longRtt) / LONG_WINDOW;
+                //延迟明显下降（比如下游恢复）时让基线更快地跟上，否则limit会在很长一段时间内偏大
+                if (longRtt / shortRtt > 2) {
+                    longRtt *= 0.95;
+                }
+            }
+            if (maxInFlight < estimatedLimit / 2) {
+                newLimit = estimatedLimit;
+            } else {
+                double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+                newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+                newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            }
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+}
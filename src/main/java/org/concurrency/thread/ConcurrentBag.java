@@ -0,0 +1,218 @@
+package org.concurrency.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁的「对象包」，用于替代ConnectionPool中synchronized + LinkedList的实现
+ *
+ * 借出对象的顺序：
+ * 1. 先从当前线程最近归还的对象（ThreadLocal）中查找，大部分情况下线程会拿回自己上次用过的对象，不触碰任何共享状态
+ * 2. 再遍历共享列表，通过CAS把对象的状态从NOT_IN_USE改为IN_USE
+ * 3. 都失败则在SynchronousQueue上等待其他线程直接移交（hand-off）
+ *
+ * 对象本身不会从共享列表中移除，借出/归还只是修改对象上的状态位，所以共享列表使用读多写少的CopyOnWriteArrayList
+ */
+public class ConcurrentBag<T extends ConcurrentBag.BagEntry> {
+
+    /**
+     * 每个线程最多缓存的最近归还对象数
+     */
+    private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+    /**
+     * 一直等待的线程每隔这么久检查一次包是否已关闭
+     */
+    private static final long CLOSE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 所有对象的共享列表
+     */
+    private final CopyOnWriteArrayList<T> sharedList = new CopyOnWriteArrayList<>();
+    /**
+     * 当前线程最近归还的对象
+     */
+    private final ThreadLocal<List<T>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(MAX_THREAD_LOCAL_ENTRIES));
+    /**
+     * 正在等待的线程数，归还对象时据此判断是否需要移交
+     */
+    private final AtomicInteger waiters = new AtomicInteger();
+    /**
+     * 公平模式的SynchronousQueue，归还的对象直接交给等待最久的线程
+     */
+    private final SynchronousQueue<T> handoffQueue = new SynchronousQueue<>(true);
+    private volatile boolean closed;
+
+    /**
+     * 往包中添加一个新对象
+     * @param entry
+     */
+    public void add(T entry) {
+        sharedList.add(entry);
+        //如果有线程在等待，直接把新对象移交出去
+        while (waiters.get() > 0 && entry.getState() == BagEntry.STATE_NOT_IN_USE && !handoffQueue.offer(entry)) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 从包中借出一个对象
+     * @param timeout 小于等于0表示一直等待
+     * @param unit
+     * @return 超时或者包已关闭时返回null；关闭后借到的对象会放回空闲状态，由调用方像关闭时一样通过reserve + remove清理
+     * @throws InterruptedException
+     */
+    public T borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        //1. 当前线程最近归还的对象，从后往前找（最近归还的最可能还在CPU缓存中）
+        List<T> list = threadList.get();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            T entry = list.remove(i);
+            if (entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_IN_USE)) {
+                return checkClosed(entry);
+            }
+        }
+
+        //2. 遍历共享列表，先登记为等待者，避免在遍历和等待之间错过其他线程的归还
+        waiters.incrementAndGet();
+        try {
+            for (T entry : sharedList) {
+                if (entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_IN_USE)) {
+                    return checkClosed(entry);
+                }
+            }
+
+            //3. 等待移交，一直等待时每隔CLOSE_CHECK_NANOS检查一次是否已关闭
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!closed) {
+                long wait = CLOSE_CHECK_NANOS;
+                if (timeout > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+                T entry = handoffQueue.poll(wait, TimeUnit.NANOSECONDS);
+                if (entry != null && entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_IN_USE)) {
+                    return checkClosed(entry);
+                }
+            }
+            return null;
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * 借到对象后再检查一次是否已关闭：关闭方遍历对象时，移交途中或者刚被CAS借出的对象会被跳过，不能再交给调用方
+     * @param entry 已经CAS为借出状态的对象
+     * @return 已关闭时把对象放回空闲状态并返回null
+     */
+    private T checkClosed(T entry) {
+        if (closed) {
+            entry.compareAndSet(BagEntry.STATE_IN_USE, BagEntry.STATE_NOT_IN_USE);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 归还对象，只有借出状态的对象才能归还；重复归还时对象可能已经被其他线程借走，不能再改写它的状态
+     * @param entry
+     * @return 对象不处于借出状态（重复归还或已被移除）时返回false，不做任何处理
+     */
+    public boolean requite(T entry) {
+        if (!entry.compareAndSet(BagEntry.STATE_IN_USE, BagEntry.STATE_NOT_IN_USE)) {
+            return false;
+        }
+
+        //有线程在等待时优先移交，直到对象被别人拿走或者没有等待者
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (entry.getState() != BagEntry.STATE_NOT_IN_USE || handoffQueue.offer(entry)) {
+                return true;
+            } else if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+
+        List<T> list = threadList.get();
+        if (list.size() < MAX_THREAD_LOCAL_ENTRIES) {
+            list.add(entry);
+        }
+        return true;
+    }
+
+    /**
+     * 把对象从包中移除，只有借出状态的对象才能被移除
+     * @param entry
+     * @return
+     */
+    public boolean remove(T entry) {
+        if (!entry.compareAndSet(BagEntry.STATE_IN_USE, BagEntry.STATE_REMOVED)) {
+            return false;
+        }
+        return sharedList.remove(entry);
+    }
+
+    /**
+     * 把空闲的对象标记为借出，用于关闭时占住空闲对象再移除
+     * @param entry
+     * @return 对象不是空闲状态时返回false
+     */
+    public boolean reserve(T entry) {
+        return entry.compareAndSet(BagEntry.STATE_NOT_IN_USE, BagEntry.STATE_IN_USE);
+    }
+
+    /**
+     * 包中所有对象的快照，包括借出的对象
+     * @return
+     */
+    public List<T> values() {
+        return new ArrayList<>(sharedList);
+    }
+
+    /**
+     * 关闭后正在等待以及之后借出对象的线程都返回null，已经空闲的对象由调用方通过reserve + remove清理
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int size() {
+        return sharedList.size();
+    }
+
+    public int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    /**
+     * 包中的对象，借出/归还通过CAS修改state完成
+     */
+    public static class BagEntry {
+
+        static final int STATE_NOT_IN_USE = 0;
+        static final int STATE_IN_USE = 1;
+        static final int STATE_REMOVED = -1;
+
+        private final AtomicInteger state = new AtomicInteger(STATE_NOT_IN_USE);
+
+        int getState() {
+            return state.get();
+        }
+
+        boolean compareAndSet(int expect, int update) {
+            return state.compareAndSet(expect, update);
+        }
+    }
+}
@@ -4,24 +4,92 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 通过动态代理构造一个Connection，该Connection的代理实现仅是在
  * commit()方法时休眠100毫秒
+ *
+ * 也可以指定一个GroupCommitter，让多个连接共用一个日志设备：
+ * 不开启组提交时所有commit()逐个刷盘，开启组提交时并发的commit()会被合并成一次100毫秒的刷盘
+ *
+ * 需要更真实的耗时分布和故障时，通过DriverConfig创建不经过反射的SimulatedConnection
  */
 public class ConnectionDriver {
 
+    /**
+     * 每次commit（刷盘）的耗时
+     */
+    public static final long COMMIT_MILLIS = 100;
+
     static class ConnectionHandler implements InvocationHandler {
+
+        /**
+         * 为null时每次commit单独休眠COMMIT_MILLIS
+         */
+        private final GroupCommitter groupCommitter;
+
+        ConnectionHandler(GroupCommitter groupCommitter) {
+            this.groupCommitter = groupCommitter;
+        }
+
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
             if (method.getName().equals("commit")) {
-                TimeUnit.MILLISECONDS.sleep(100);
+                if (groupCommitter != null) {
+                    groupCommitter.commit();
+                } else {
+                    TimeUnit.MILLISECONDS.sleep(COMMIT_MILLIS);
+                }
+            } else if (method.getName().equals("isValid")) {
+                return true;
             }
             return null;
         }
     }
 
     public static final Connection createConnection() {
-        return (Connection) Proxy.newProxyInstance(ConnectionDriver.class.getClassLoader(), new Class[] {Connection.class}, new ConnectionHandler());
+        return createConnection((GroupCommitter) null);
+    }
+
+    /**
+     * 创建一个commit()通过groupCommitter组提交的连接，共享同一个groupCommitter的连接之间会合并刷盘
+     * @param groupCommitter
+     * @return
+     */
+    public static final Connection createConnection(GroupCommitter groupCommitter) {
+        return (Connection) Proxy.newProxyInstance(ConnectionDriver.class.getClassLoader(), new Class<?>[] {Connection.class}, new ConnectionHandler(groupCommitter));
+    }
+
+    /**
+     * 按DriverConfig创建模拟连接：建立连接本身也按CONNECT的耗时分布休眠，并按connectFailureRate失败
+     * @param config
+     * @return
+     * @throws SQLException
+     */
+    public static SimulatedConnection createConnection(DriverConfig config) throws SQLException {
+        SimulatedConnection.pause(config.getLatency(DriverConfig.Operation.CONNECT).nextNanos());
+        if (config.getConnectFailureRate() > 0 && ThreadLocalRandom.current().nextDouble() < config.getConnectFailureRate()) {
+            throw new SQLException("connection refused", "08001");
+        }
+        return new SimulatedConnection(config);
+    }
+
+    /**
+     * 创建一个组提交器，每次刷盘耗时COMMIT_MILLIS，leader等待windowMicros收集同一批次的commit
+     * @param windowMicros
+     * @return
+     */
+    public static GroupCommitter createGroupCommitter(long windowMicros) {
+        return new GroupCommitter(COMMIT_MILLIS, windowMicros, true);
+    }
+
+    /**
+     * 创建一个不合并commit的日志设备，每次commit都单独刷盘COMMIT_MILLIS，同一时刻只能有一个commit在刷盘
+     * @return
+     */
+    public static GroupCommitter createSerialCommitter() {
+        return new GroupCommitter(COMMIT_MILLIS, 0, false);
     }
 }
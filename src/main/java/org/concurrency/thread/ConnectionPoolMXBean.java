@@ -0,0 +1,72 @@
+package org.concurrency.thread;
+
+/**
+ * 通过JMX暴露的连接池指标，时间类指标单位均为微秒
+ */
+public interface ConnectionPoolMXBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getWaitingThreads();
+
+    long getAcquireCount();
+
+    long getTimeoutCount();
+
+    /**
+     * 被自适应并发限制直接拒绝的次数
+     */
+    long getRejectedCount();
+
+    /**
+     * 借出时间超过阈值被报告为疑似泄漏的次数
+     */
+    long getLeakCount();
+
+    /**
+     * 借出前验证失败而被关闭的连接数
+     */
+    long getValidationFailureCount();
+
+    /**
+     * 当前的并发限制，未启用时为-1
+     */
+    int getConcurrencyLimit();
+
+    long getAcquireWaitP50Micros();
+
+    long getAcquireWaitP99Micros();
+
+    long getAcquireWaitP999Micros();
+
+    long getAcquireWaitMaxMicros();
+
+    long getHoldTimeP50Micros();
+
+    long getHoldTimeP99Micros();
+
+    long getHoldTimeP999Micros();
+
+    long getHoldTimeMaxMicros();
+
+    long getCreationCount();
+
+    long getCreationTimeP50Micros();
+
+    long getCreationTimeP99Micros();
+
+    long getCreationTimeMaxMicros();
+
+    long getStatementCacheHitCount();
+
+    long getStatementCacheMissCount();
+
+    /**
+     * 清空所有直方图和计数器
+     */
+    void resetStatistics();
+}
@@ -0,0 +1,219 @@
+package org.concurrency.thread;
+
+import org.concurrency.util.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ManagedConnectionPool的指标
+ *
+ * 获取等待时间、持有时间和创建耗时记录在无锁的Histogram中，超时次数用LongAdder累加，记录时都不需要加锁；
+ * 活跃/空闲/等待数只在读取时向连接池查询，不占用获取连接的路径
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMXBean {
+
+    private final ManagedConnectionPool pool;
+
+    /**
+     * 获取连接的等待时间（纳秒），只记录成功获取的请求
+     */
+    final Histogram acquireWait = new Histogram();
+    /**
+     * 连接从借出到归还的持有时间（纳秒）
+     */
+    final Histogram holdTime = new Histogram();
+    /**
+     * 创建连接的耗时（纳秒）
+     */
+    final Histogram creationTime = new Histogram();
+    /**
+     * 超时未获取到连接的次数
+     */
+    final LongAdder timeouts = new LongAdder();
+    /**
+     * 被自适应并发限制直接拒绝的次数
+     */
+    final LongAdder rejections = new LongAdder();
+    /**
+     * 报告的疑似泄漏次数、借出前验证失败的连接数
+     */
+    final LongAdder leaks = new LongAdder();
+    final LongAdder validationFailures = new LongAdder();
+    /**
+     * PreparedStatement缓存命中/未命中次数
+     */
+    final LongAdder statementCacheHits = new LongAdder();
+    final LongAdder statementCacheMisses = new LongAdder();
+
+    ConnectionPoolMetrics(ManagedConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public Histogram getAcquireWaitHistogram() {
+        return acquireWait;
+    }
+
+    public Histogram getHoldTimeHistogram() {
+        return holdTime;
+    }
+
+    public Histogram getCreationTimeHistogram() {
+        return creationTime;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return pool.getTotalConnections() - pool.getIdleConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return pool.getIdleConnections();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return pool.getTotalConnections();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return pool.getWaitingThreads();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquireWait.getCount();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    @Override
+    public long getValidationFailureCount() {
+        return validationFailures.sum();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return pool.getConcurrencyLimit();
+    }
+
+    @Override
+    public long getAcquireWaitP50Micros() {
+        return micros(acquireWait.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getAcquireWaitP99Micros() {
+        return micros(acquireWait.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getAcquireWaitP999Micros() {
+        return micros(acquireWait.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getAcquireWaitMaxMicros() {
+        return micros(acquireWait.getMax());
+    }
+
+    @Override
+    public long getHoldTimeP50Micros() {
+        return micros(holdTime.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getHoldTimeP99Micros() {
+        return micros(holdTime.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getHoldTimeP999Micros() {
+        return micros(holdTime.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getHoldTimeMaxMicros() {
+        return micros(holdTime.getMax());
+    }
+
+    @Override
+    public long getCreationCount() {
+        return creationTime.getCount();
+    }
+
+    @Override
+    public long getCreationTimeP50Micros() {
+        return micros(creationTime.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getCreationTimeP99Micros() {
+        return micros(creationTime.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getCreationTimeMaxMicros() {
+        return micros(creationTime.getMax());
+    }
+
+    @Override
+    public long getStatementCacheHitCount() {
+        return statementCacheHits.sum();
+    }
+
+    @Override
+    public long getStatementCacheMissCount() {
+        return statementCacheMisses.sum();
+    }
+
+    @Override
+    public void resetStatistics() {
+        acquireWait.reset();
+        holdTime.reset();
+        creationTime.reset();
+        timeouts.reset();
+        rejections.reset();
+        leaks.reset();
+        validationFailures.reset();
+        statementCacheHits.reset();
+        statementCacheMisses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "active=" + getActiveConnections()
+                + ", idle=" + getIdleConnections()
+                + ", waiting=" + getWaitingThreads()
+                + ", acquired=" + getAcquireCount()
+                + ", timeouts=" + getTimeoutCount()
+                + ", rejected=" + getRejectedCount()
+                + ", leaks=" + getLeakCount()
+                + ", invalid=" + getValidationFailureCount()
+                + ", wait(us) p50/p99/p999/max=" + getAcquireWaitP50Micros() + "/" + getAcquireWaitP99Micros()
+                + "/" + getAcquireWaitP999Micros() + "/" + getAcquireWaitMaxMicros()
+                + ", hold(us) p50/p99/p999/max=" + getHoldTimeP50Micros() + "/" + getHoldTimeP99Micros()
+                + "/" + getHoldTimeP999Micros() + "/" + getHoldTimeMaxMicros()
+                + ", created=" + getCreationCount()
+                + ", create(us) p50/max=" + getCreationTimeP50Micros() + "/" + getCreationTimeMaxMicros();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,329 @@
+package org.concurrency.thread;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 分布式许可的本地租约：从PermitStore批量租用许可，获取许可时先在本地扣减，本地不够时才访问PermitStore
+ *
+ * 1. 本地许可用AtomicInteger维护，获取/释放只是一次CAS，不需要网络往返
+ * 2. 本地许可不够时，同一时刻只有一个线程去PermitStore租用一批（batchSize个）许可，其他线程等它的结果；
+ *    全局许可也不够时，LEASE_RETRY_MILLIS内不再访问PermitStore，不管有多少线程在等待
+ * 3. 全局许可也不够时，等待本地其他线程释放许可，每隔一段时间重新尝试租用
+ * 4. 后台定时任务续约，并把整个周期内都没有用到的许可归还给PermitStore，让其他节点可以使用
+ * 5. 续约时发现租约已经过期（GC停顿、PermitStore不可用的时间超过了租约有效期），之前租用的许可已经回到全局：
+ *    丢弃本地还没用的许可，正在使用的许可变成欠账（本地许可为负数），重新租到足够的许可还清欠账之前不再放行新的请求
+ * 6. 异步获取（acquireAsync）时调用线程只做一次本地CAS，本地不够时交给后台线程去租用，不会因为访问PermitStore而阻塞
+ *
+ * PermitStore访问失败时当作没有租到许可（宁可少用也不超出全局许可总数）
+ */
+public class DistributedPermits {
+
+    /**
+     * 全局许可不够时，重新尝试租用的间隔
+     */
+    private static final long LEASE_RETRY_MILLIS = 20;
+
+    private final PermitStore store;
+    private final String node;
+    private final int batchSize;
+
+    /**
+     * 已经租到、还没被使用的本地许可；为负数时表示正在使用、但在PermitStore中没有租约的许可数
+     */
+    private final AtomicInteger available = new AtomicInteger();
+    /**
+     * PermitStore中本节点租用的许可数（本地许可 + 有租约的正在使用的许可），只在持有leaseLock时修改
+     */
+    private int leased;
+    /**
+     * 当前周期内本地许可的最小值，即整个周期内都没有用到的许可数，没有获取过许可时为Long.MAX_VALUE
+     */
+    private final LongAccumulator lowWater = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    /**
+     * 同一时刻只有一个线程访问PermitStore
+     */
+    private final Object leaseLock = new Object();
+    /**
+     * 上一次租用失败后，在这个时间（System.nanoTime()）之前不再访问PermitStore
+     */
+    private volatile long nextLeaseNanos;
+    /**
+     * 等待本地释放许可的线程数，只在持有this的锁时修改
+     */
+    private volatile int waiters;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * @param store
+     * @param node 节点id，所有节点之间唯一
+     * @param batchSize 每次从PermitStore租用的许可数
+     * @param returnIntervalMillis 续约以及归还没用到的许可的周期，应当远小于PermitStore的租约有效期
+     */
+    public DistributedPermits(PermitStore store, String node, int batchSize, long returnIntervalMillis) {
+        if (batchSize < 1 || returnIntervalMillis <= 0) {
+            throw new IllegalArgumentException("batchSize and returnIntervalMillis must be positive");
+        }
+        this.store = store;
+        this.node = node;
+        this.batchSize = batchSize;
+        this.nextLeaseNanos = System.nanoTime();
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "DistributedPermits-" + node);
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::returnUnused, returnIntervalMillis, returnIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尝试获取permits个许可，不等待：本地不够时最多访问一次PermitStore
+     * @param permits
+     * @return
+     */
+    public boolean tryAcquire(int permits) {
+        return tryAcquireLocal(permits) || (lease(permits) && tryAcquireLocal(permits));
+    }
+
+    /**
+     * 获取permits个许可，在millis内获取不到则返回false
+     * @param permits
+     * @param millis 小于等于0表示一直等待
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean acquire(int permits, long millis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (!tryAcquire(permits)) {
+            long waitMillis = LEASE_RETRY_MILLIS;
+            if (millis > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                waitMillis = Math.min(waitMillis, remaining);
+            }
+            //等待本地其他线程释放许可，或者到时间后重新尝试租用
+            synchronized (this) {
+                waiters++;
+                try {
+                    if (available.get() < permits) {
+                        wait(waitMillis);
+                    }
+                } finally {
+                    waiters--;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 异步获取permits个许可，调用线程只尝试一次本地扣减，不访问PermitStore
+     *
+     * 本地不够时由后台线程租用，租不到时每隔LEASE_RETRY_MILLIS重试一次（同时也能拿到本地其他线程释放的许可），直到超时
+     * @param permits
+     * @param millis 小于等于0表示一直等待
+     * @return 拿到许可时结果为true，超时或者已经shutdown时为false；调用方取消future后拿到的许可会自动释放
+     */
+    public CompletableFuture<Boolean> acquireAsync(int permits, long millis) {
+        if (tryAcquireLocal(permits)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        try {
+            timer.execute(() -> acquireInBackground(future, permits, millis > 0, deadline));
+        } catch (RejectedExecutionException e) {
+            future.complete(false);
+        }
+        return future;
+    }
+
+    /**
+     * 在后台线程中获取许可，获取不到时稍后重试
+     */
+    private void acquireInBackground(CompletableFuture<Boolean> future, int permits, boolean timed, long deadline) {
+        if (future.isDone()) {
+            return;
+        }
+        if (tryAcquire(permits)) {
+            if (!future.complete(true)) {
+                release(permits);
+            }
+            return;
+        }
+        long waitMillis = LEASE_RETRY_MILLIS;
+        if (timed) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                future.complete(false);
+                return;
+            }
+            waitMillis = Math.min(waitMillis, remaining);
+        }
+        try {
+            timer.schedule(() -> acquireInBackground(future, permits, timed, deadline), waitMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            future.complete(false);
+        }
+    }
+
+    /**
+     * 释放许可到本地，不访问PermitStore；有欠账时先还欠账
+     * @param permits
+     */
+    public void release(int permits) {
+        available.addAndGet(permits);
+        if (waiters > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 本地可用的许可数，租约过期后还没还清欠账时为负数
+     * @return
+     */
+    public int getLocalPermits() {
+        return available.get();
+    }
+
+    /**
+     * 停止后台任务，把本地许可全部归还给PermitStore
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        synchronized (leaseLock) {
+            int permits = takeAvailable(Integer.MAX_VALUE);
+            if (permits > 0) {
+                leased -= permits;
+                try {
+                    store.release(node, permits);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private boolean tryAcquireLocal(int permits) {
+        while (true) {
+            int current = available.get();
+            if (current < permits) {
+                return false;
+            }
+            if (available.compareAndSet(current, current - permits)) {
+                lowWater.accumulate(current - permits);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 从本地许可中取出最多max个，返回取出的个数
+     */
+    private int takeAvailable(long max) {
+        while (true) {
+            int current = available.get();
+            int taken = (int) Math.max(0, Math.min(max, current));
+            if (taken == 0 || available.compareAndSet(current, current - taken)) {
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * 从PermitStore租用一批许可：持有leaseLock的线程访问PermitStore，其他线程阻塞在锁上等它的结果；
+     * 租用失败后LEASE_RETRY_MILLIS内直接返回false
+     * @param needed 本次获取需要的许可数
+     * @return 是否租到了许可
+     */
+    private boolean lease(int needed) {
+        if (System.nanoTime() - nextLeaseNanos < 0) {
+            return false;
+        }
+        synchronized (leaseLock) {
+            //等锁期间其他线程可能已经租到了，或者刚刚租用失败
+            int current = available.get();
+            if (current >= needed) {
+                return true;
+            }
+            if (System.nanoTime() - nextLeaseNanos < 0) {
+                return false;
+            }
+            //有欠账时连同欠账一起租
+            int granted = leaseFromStore(Math.max(batchSize, needed - current));
+            if (granted == 0) {
+                nextLeaseNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LEASE_RETRY_MILLIS);
+            }
+            return granted > 0;
+        }
+    }
+
+    /**
+     * 只在持有leaseLock时调用
+     */
+    private int leaseFromStore(int permits) {
+        int granted;
+        try {
+            granted = store.lease(node, permits);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        if (granted > 0) {
+            leased += granted;
+            available.addAndGet(granted);
+        }
+        return granted;
+    }
+
+    /**
+     * 后台定时任务：归还整个周期内都没有用到的许可，续约，租约丢失时重新租用正在使用的许可
+     */
+    private void returnUnused() {
+        long low = lowWater.getThenReset();
+        synchronized (leaseLock) {
+            int unused = takeAvailable(low);
+            if (unused > 0) {
+                try {
+                    store.release(node, unused);
+                    leased -= unused;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    //归还失败时放回本地，下个周期再试
+                    available.addAndGet(unused);
+                }
+            }
+            if (leased > 0) {
+                boolean alive;
+                try {
+                    //续约，即使本地许可都在使用中也要刷新租约有效期
+                    alive = store.renew(node);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if (!alive) {
+                    //租约已经过期，PermitStore中已经没有本节点的许可：本地许可作废，正在使用的许可变成欠账
+                    available.addAndGet(-leased);
+                    leased = 0;
+                    System.err.println("lease of " + node + " expired, " + Math.max(0, -available.get())
+                            + " permits in use are no longer backed");
+                }
+            }
+            //有欠账时先把正在使用的许可重新租回来
+            int debt = -available.get();
+            if (debt > 0) {
+                leaseFromStore(debt);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.concurrency.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DistributedPermits示例，用LocalPermitStore代替Redis
+ *
+ * 1. 两个节点共享6个许可，各用8个线程反复获取/释放，同时使用的许可数不超过6
+ * 2. 租约过期：节点A访问不到PermitStore的时间超过了租约有效期（300毫秒，相当于Redis故障或者长时间的GC停顿），
+ *    A的许可被节点B租走；A恢复后续约时发现租约丢失，正在使用的许可变成欠账，重新租到之前不再放行新的请求
+ */
+public class DistributedPermitsDemo {
+
+    public static void main(String[] args) throws InterruptedException {
+        sharedBudget();
+        leaseExpiry();
+    }
+
+    private static void sharedBudget() throws InterruptedException {
+        System.out.println("====== shared budget ======");
+        LocalPermitStore store = new LocalPermitStore(6, 1000);
+        DistributedPermits[] nodes = {
+                new DistributedPermits(store, "node-1", 2, 100),
+                new DistributedPermits(store, "node-2", 2, 100)
+        };
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger maxInUse = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(16);
+        for (int i = 0; i < 16; i++) {
+            DistributedPermits permits = nodes[i % 2];
+            new Thread(() -> {
+                try {
+                    for (int j = 0; j < 50; j++) {
+                        if (permits.acquire(1, 1000)) {
+                            maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+                            acquired.incrementAndGet();
+                            TimeUnit.MILLISECONDS.sleep(2);
+                            inUse.decrementAndGet();
+                            permits.release(1);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        System.out.println("acquired=" + acquired + ", max in use=" + maxInUse + " (budget 6)");
+        //空闲一个周期后，没用到的许可归还给PermitStore
+        TimeUnit.MILLISECONDS.sleep(300);
+        System.out.println("leased after idle=" + store.getLeased());
+        for (DistributedPermits node : nodes) {
+            node.shutdown();
+        }
+        System.out.println("leased after shutdown=" + store.getLeased());
+        //打印结果可能如下：
+        //acquired=800, max in use=6 (budget 6)
+        //leased after idle=0
+        //leased after shutdown=0
+    }
+
+    private static void leaseExpiry() throws InterruptedException {
+        System.out.println("====== lease expiry ======");
+        LocalPermitStore store = new LocalPermitStore(6, 300);
+        UnreliableStore storeOfA = new UnreliableStore(store);
+        DistributedPermits a = new DistributedPermits(storeOfA, "node-a", 3, 100);
+        DistributedPermits b = new DistributedPermits(store, "node-b", 1, 100);
+
+        for (int i = 0; i < 3; i++) {
+            a.tryAcquire(1);
+        }
+        System.out.println("A holds 3, leased=" + store.getLeased());
+        //A访问不到PermitStore的时间超过了租约有效期，租约过期
+        storeOfA.unreachable = true;
+        TimeUnit.MILLISECONDS.sleep(500);
+        int taken = 0;
+        while (b.tryAcquire(1)) {
+            taken++;
+        }
+        System.out.println("A's lease expired, B took " + taken + " permits, leased=" + store.getLeased());
+        //恢复后A续约时发现租约丢失，正在使用的3个许可变成欠账
+        storeOfA.unreachable = false;
+        TimeUnit.MILLISECONDS.sleep(200);
+        System.out.println("A renewed: local=" + a.getLocalPermits() + ", tryAcquire=" + a.tryAcquire(1));
+        //B归还许可，A把正在使用的3个许可重新租回来
+        b.release(taken);
+        TimeUnit.MILLISECONDS.sleep(300);
+        System.out.println("B released: A local=" + a.getLocalPermits() + ", leased=" + store.getLeased());
+        a.release(3);
+        System.out.println("A released: local=" + a.getLocalPermits() + ", tryAcquire=" + a.tryAcquire(1));
+        a.release(1);
+        a.shutdown();
+        b.shutdown();
+        System.out.println("leased after shutdown=" + store.getLeased());
+        //打印结果可能如下：
+        //A holds 3, leased=3
+        //org.concurrency.thread.DistributedPermitsDemo$StoreUnreachableException: store unreachable
+        //...
+        //A's lease expired, B took 6 permits, leased=6
+        //lease of node-a expired, 3 permits in use are no longer backed
+        //A renewed: local=-3, tryAcquire=false
+        //B released: A local=0, leased=3
+        //A released: local=3, tryAcquire=true
+        //leased after shutdown=0
+    }
+
+    /**
+     * 模拟网络故障：unreachable为true时所有调用都抛出异常
+     */
+    private static class UnreliableStore implements PermitStore {
+        private final PermitStore delegate;
+        volatile boolean unreachable;
+
+        UnreliableStore(PermitStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int lease(String node, int permits) {
+            check();
+            return delegate.lease(node, permits);
+        }
+
+        @Override
+        public boolean renew(String node) {
+            check();
+            return delegate.renew(node);
+        }
+
+        @Override
+        public void release(String node, int permits) {
+            check();
+            delegate.release(node, permits);
+        }
+
+        private void check() {
+            if (unreachable) {
+                throw new StoreUnreachableException();
+            }
+        }
+    }
+
+    /**
+     * 不带调用栈，避免示例的输出被调用栈淹没
+     */
+    private static class StoreUnreachableException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        StoreUnreachableException() {
+            super("store unreachable");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.concurrency.thread;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * ConnectionDriver模拟连接的配置：每类操作的耗时分布、故障注入以及组提交
+ *
+ * 概率类的配置取值0~1，0表示不注入故障
+ */
+public class DriverConfig {
+
+    /**
+     * 连接上的操作分类，耗时按分类配置
+     */
+    public enum Operation {
+        /**
+         * 建立连接
+         */
+        CONNECT,
+        COMMIT,
+        ROLLBACK,
+        /**
+         * createStatement、prepareStatement、prepareCall
+         */
+        PREPARE,
+        /**
+         * Statement上执行SQL的方法：execute、executeQuery、executeUpdate、executeBatch等
+         */
+        EXECUTE,
+        /**
+         * isValid
+         */
+        VALIDATE,
+        /**
+         * 其余的操作
+         */
+        OTHER
+    }
+
+    private final Map<Operation, LatencyModel> latencies = new EnumMap<>(Operation.class);
+    /**
+     * 每次操作抛出SQLException的概率，连接本身仍然可用
+     */
+    private double failureRate;
+    /**
+     * 每次操作后连接断开的概率，断开后该连接上所有操作都抛出SQLException，isValid返回false
+     */
+    private double brokenRate;
+    /**
+     * 建立连接失败的概率
+     */
+    private double connectFailureRate;
+    /**
+     * 不为null时commit通过它组提交，此时COMMIT的耗时由它决定
+     */
+    private GroupCommitter groupCommitter;
+
+    /**
+     * 默认配置与原来的ConnectionDriver一致：commit耗时100毫秒，其余操作不耗时，不注入故障
+     */
+    public DriverConfig() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, LatencyModel.none());
+        }
+        latencies.put(Operation.COMMIT, LatencyModel.fixed(ConnectionDriver.COMMIT_MILLIS));
+    }
+
+    public LatencyModel getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public void setLatency(Operation operation, LatencyModel latency) {
+        latencies.put(operation, latency);
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    public double getBrokenRate() {
+        return brokenRate;
+    }
+
+    public void setBrokenRate(double brokenRate) {
+        this.brokenRate = brokenRate;
+    }
+
+    public double getConnectFailureRate() {
+        return connectFailureRate;
+    }
+
+    public void setConnectFailureRate(double connectFailureRate) {
+        this.connectFailureRate = connectFailureRate;
+    }
+
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    public void setGroupCommitter(GroupCommitter groupCommitter) {
+        this.groupCommitter = groupCommitter;
+    }
+}
@@ -0,0 +1,61 @@
+package org.concurrency.thread;
+
+import org.concurrency.util.ConcurrentUtil;
+import org.concurrency.util.InstrumentedExecutors;
+import org.concurrency.util.InstrumentedExecutors.Backpressure;
+import org.concurrency.util.ShutdownCoordinator;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并行关闭多个线程池
+ *
+ * 三个线程池：
+ * 1. fast：任务很快执行完
+ * 2. slow：每个任务1秒，队列里还有积压，但能在截止时间前处理完
+ * 3. stuck：任务一直执行，队列里积压的任务在截止时间前处理不完，会被强制关闭
+ *
+ * 逐个调用ConcurrentUtil.stop(pool, 5)最多要等15秒；ConcurrentUtil.stopAll(5, ...)同时关闭，总耗时不超过5秒
+ */
+public class ExecutorShutdownDemo {
+
+    public static void main(String[] args) {
+        ExecutorService fast = InstrumentedExecutors.newFixedThreadPool("fast", 2, 100, Backpressure.FAIL_FAST);
+        ExecutorService slow = InstrumentedExecutors.newFixedThreadPool("slow", 2, 100, Backpressure.FAIL_FAST);
+        ExecutorService stuck = InstrumentedExecutors.newFixedThreadPool("stuck", 2, 100, Backpressure.FAIL_FAST);
+        for (int i = 0; i < 10; i++) {
+            fast.execute(() -> sleep(10));
+            stuck.execute(() -> sleep(60_000));
+        }
+        for (int i = 0; i < 4; i++) {
+            slow.execute(() -> sleep(1000));
+        }
+
+        long begin = System.nanoTime();
+        List<ShutdownCoordinator.Result> results = ConcurrentUtil.stopAll(5, fast, slow, stuck);
+        System.out.println("total " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + " ms");
+        for (ShutdownCoordinator.Result result : results) {
+            if (!result.getUnstartedTasks().isEmpty()) {
+                System.out.println(result.getName() + " dropped " + result.getUnstartedTasks().size() + " tasks, they can be resubmitted or logged");
+            }
+        }
+        //打印结果可能如下：
+        //attempt to shutdown
+        //fast: terminated in 52 ms
+        //slow: terminated in 2003 ms
+        //killing non-finished tasks, stuck: terminated in 4501 ms, forced, 8 unstarted tasks dropped
+        //shutdown finished
+        //total 4503 ms
+        //stuck dropped 8 tasks, they can be resubmitted or logged
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.concurrency.thread;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 基于ConcurrentBag的无锁连接池，API与ConnectionPool保持一致
+ *
+ * ConnectionPool中所有的fetchConnection/releaseConnection都要竞争同一个pool的monitor，
+ * 线程数一多，锁竞争就成了获取连接的最大瓶颈。这里改为：
+ * 1. 连接借出/归还通过CAS修改连接的状态位完成，不需要加锁
+ * 2. 线程优先拿回自己上次归还的连接（ThreadLocal），常见路径不触碰共享状态
+ * 3. 连接池为空时，归还的连接直接移交给等待最久的线程
+ *
+ * 每次借出都会返回一个新的BagConnection，归还时只有第一次close()/releaseConnection()有效。
+ * 如果把包装对象和连接一一绑定，线程A归还后又误调用一次close()，而这时连接已经被线程B借走，就会把B正在用的连接归还掉
+ */
+public class FastConnectionPool {
+
+    private final ConcurrentBag<PoolEntry> bag = new ConcurrentBag<>();
+
+    public FastConnectionPool(int initSize) {
+        this(initSize, ConnectionDriver::createConnection);
+    }
+
+    /**
+     * 构造函数 初始化连接池
+     * @param initSize
+     * @param connectionFactory 创建真实连接，与PoolConfig.setConnectionFactory相同
+     */
+    public FastConnectionPool(int initSize, Callable<Connection> connectionFactory) {
+        for (int i = 0; i < initSize; i++) {
+            Connection connection;
+            try {
+                connection = connectionFactory.call();
+            } catch (Exception e) {
+                shutdown();
+                throw new IllegalStateException("failed to create connection", e);
+            }
+            bag.add(new PoolEntry(connection));
+        }
+    }
+
+    /**
+     * 在millis内如果未获取到连接，则返回null；millis小于等于0时一直等待
+     * @param millis
+     * @return
+     * @throws InterruptedException
+     * @throws IllegalStateException 连接池已关闭
+     */
+    public Connection fetchConnection(long millis) throws InterruptedException {
+        checkOpen();
+        PoolEntry entry = bag.borrow(millis, TimeUnit.MILLISECONDS);
+        if (entry == null) {
+            if (bag.isClosed()) {
+                //等待期间连接池被关闭，借到后又被放回的连接可能错过了shutdown()的清理
+                closeIdleConnections();
+                checkOpen();
+            }
+            return null;
+        }
+        return new BagConnection(entry.rawConnection, entry);
+    }
+
+    /**
+     * 释放连接，只接受从本连接池获取的连接，同一次借出的连接重复释放被忽略；连接池关闭后释放的连接直接关闭
+     * @param connection
+     */
+    public void releaseConnection(Connection connection) {
+        if (connection instanceof BagConnection) {
+            BagConnection bagConnection = (BagConnection) connection;
+            if (bagConnection.entry.pool == this && bagConnection.released.compareAndSet(false, true)
+                    && bag.requite(bagConnection.entry) && bag.isClosed()) {
+                //与shutdown()并发时，谁先占住这个连接谁负责关闭
+                closeIfIdle(bagConnection.entry);
+            }
+        }
+    }
+
+    /**
+     * 关闭连接池：关闭所有空闲连接，借出的连接在归还时关闭；之后获取连接（包括正在等待的线程）抛出IllegalStateException
+     */
+    public void shutdown() {
+        bag.close();
+        closeIdleConnections();
+    }
+
+    public int size() {
+        return bag.size();
+    }
+
+    private void checkOpen() {
+        if (bag.isClosed()) {
+            throw new IllegalStateException("pool is shut down");
+        }
+    }
+
+    private void closeIdleConnections() {
+        for (PoolEntry entry : bag.values()) {
+            closeIfIdle(entry);
+        }
+    }
+
+    private void closeIfIdle(PoolEntry entry) {
+        if (bag.reserve(entry) && bag.remove(entry)) {
+            try {
+                entry.rawConnection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 连接池中的一项，持有真实连接
+     */
+    class PoolEntry extends ConcurrentBag.BagEntry {
+
+        final FastConnectionPool pool = FastConnectionPool.this;
+        final Connection rawConnection;
+
+        PoolEntry(Connection rawConnection) {
+            this.rawConnection = rawConnection;
+        }
+    }
+
+    /**
+     * 每次借出时交给调用方的连接，通过它可以在O(1)时间内找到对应的PoolEntry，close()等同于releaseConnection()
+     */
+    static class BagConnection extends DelegatingConnection {
+
+        final PoolEntry entry;
+        /**
+         * 这次借出是否已经归还，保证同一次借出只归还一次
+         */
+        final AtomicBoolean released = new AtomicBoolean();
+
+        BagConnection(Connection delegate, PoolEntry entry) {
+            super(delegate);
+            this.entry = entry;
+        }
+
+        @Override
+        public void close() {
+            entry.pool.releaseConnection(this);
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return released.get() || super.isClosed();
+        }
+    }
+}
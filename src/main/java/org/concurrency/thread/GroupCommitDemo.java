@@ -0,0 +1,107 @@
+package org.concurrency.thread;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 组提交示例：对比三种commit模型的吞吐量
+ *
+ * 1. independent：默认的ConnectionDriver，每个连接各自休眠100ms，相当于每个连接有自己的日志设备，吞吐量上限是 连接数/100ms
+ * 2. serial：所有连接共用一个日志设备、逐个刷盘，这才是真实数据库没有组提交时的情况，吞吐量上限是 1/100ms
+ * 3. group：共用一个日志设备，并发的commit合并刷盘，吞吐量随着并发commit的数量增加而增加
+ *
+ * 三种模型在相同的线程数下都运行RUN_MILLIS，吞吐量为完成的commit数除以实际耗时，可以直接对比。
+ * 每种线程数分别在两种方式下运行：
+ * 1. direct：每个写线程持有一个自己的连接，并发的commit数等于线程数
+ * 2. pool：写线程通过大小为POOL_SIZE的ManagedConnectionPool获取连接，commit期间一直占用着连接，并发的commit数最多为POOL_SIZE，
+ *    所以三种模型的吞吐量都不会超过 POOL_SIZE/100ms，组提交只是让共享日志设备不再是瓶颈
+ */
+public class GroupCommitDemo {
+
+    /**
+     * 每组参数的运行时间，到时间后不再发起新的commit，已经发起的commit执行完后统计（serial模式下排队的commit要逐个刷完，所以elapsed会比较长）
+     */
+    static final long RUN_MILLIS = 2000;
+    static final int POOL_SIZE = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int threadCount : new int[] {10, 50, 200}) {
+            for (boolean pooled : new boolean[] {false, true}) {
+                run("independent", threadCount, pooled, null);
+                run("serial", threadCount, pooled, ConnectionDriver.createSerialCommitter());
+                run("group", threadCount, pooled, ConnectionDriver.createGroupCommitter(500));
+            }
+        }
+
+        //should print something like
+        //independent direct threads=10  commits=200   elapsed=2015ms throughput=99/s
+        //serial      direct threads=10  commits=29    elapsed=2912ms throughput=9/s batch=1.0
+        //group       direct threads=10  commits=193   elapsed=2036ms throughput=94/s batch=9.7
+        //...
+        //independent direct threads=200 commits=4000  elapsed=2008ms throughput=1992/s
+        //serial      direct threads=200 commits=219   elapsed=21967ms throughput=9/s batch=1.0
+        //group       direct threads=200 commits=2919  elapsed=2130ms throughput=1370/s batch=139.0
+        //independent pool   threads=200 commits=390   elapsed=3916ms throughput=99/s
+        //serial      pool   threads=200 commits=219   elapsed=21963ms throughput=9/s batch=1.0
+        //group       pool   threads=200 commits=390   elapsed=3958ms throughput=98/s batch=10.0
+    }
+
+    /**
+     * @param name
+     * @param threadCount 写线程数
+     * @param pooled 是否通过ManagedConnectionPool获取连接
+     * @param committer 为null时每个连接独立commit
+     */
+    static void run(String name, int threadCount, boolean pooled, GroupCommitter committer) throws InterruptedException {
+        ManagedConnectionPool pool = null;
+        if (pooled) {
+            PoolConfig config = new PoolConfig(POOL_SIZE, POOL_SIZE);
+            config.setConnectionFactory(() -> ConnectionDriver.createConnection(committer));
+            pool = new ManagedConnectionPool(config);
+        }
+        LongAdder commits = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(threadCount);
+        long[] deadline = new long[1];
+        for (int i = 0; i < threadCount; i++) {
+            ManagedConnectionPool writerPool = pool;
+            Connection own = pooled ? null : ConnectionDriver.createConnection(committer);
+            new Thread(() -> {
+                try {
+                    start.await();
+                    while (System.nanoTime() - deadline[0] < 0) {
+                        Connection connection = writerPool == null ? own : writerPool.fetchConnection(0);
+                        try {
+                            connection.commit();
+                            commits.increment();
+                        } finally {
+                            if (writerPool != null) {
+                                writerPool.releaseConnection(connection);
+                            }
+                        }
+                    }
+                } catch (InterruptedException | SQLException e) {
+                    e.printStackTrace();
+                } finally {
+                    end.countDown();
+                }
+            }, "Writer-" + i).start();
+        }
+        long begin = System.nanoTime();
+        //start.countDown()保证了deadline对写线程可见
+        deadline[0] = begin + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+        start.countDown();
+        end.await();
+        long elapsedMillis = (System.nanoTime() - begin) / 1_000_000;
+        if (pool != null) {
+            pool.shutdown();
+        }
+        long count = commits.sum();
+        System.out.printf("%-11s %-6s threads=%-3d commits=%-5d elapsed=%dms throughput=%d/s%s%n",
+                name, pooled ? "pool" : "direct", threadCount, count, elapsedMillis, count * 1000L / Math.max(1, elapsedMillis),
+                committer == null ? "" : String.format(" batch=%.1f", committer.getAverageBatchSize()));
+    }
+}
@@ -0,0 +1,131 @@
+package org.concurrency.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 组提交（group commit）：把不同连接上并发发起的commit合并成一次刷盘
+ *
+ * 第一个到达的commit成为本批次的leader，它先排队获取刷盘权（同一时刻只有一个批次在刷盘），拿到刷盘权后再等待一个很短的窗口让其他commit加入，
+ * 然后封闭本批次，刷盘一次，唤醒本批次所有的commit。
+ * 上一个批次刷盘期间到达的commit都会进入下一个批次，所以并发写入越多，每个批次越大，每次commit平均分摊的刷盘耗时越少。
+ *
+ * grouping为false时模拟没有组提交的数据库：所有commit共用一个日志设备，逐个刷盘。
+ */
+public class GroupCommitter {
+
+    /**
+     * 每次刷盘的耗时
+     */
+    private final long flushMillis;
+    /**
+     * leader等待其他commit加入的窗口
+     */
+    private final long windowMicros;
+    /**
+     * 是否合并commit
+     */
+    private final boolean grouping;
+
+    /**
+     * 当前正在接收commit的批次，只在持有this的monitor时读写
+     */
+    private Batch current;
+    /**
+     * 刷盘权，保证同一时刻只有一个批次在刷盘
+     */
+    private final Object flushLock = new Object();
+
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    public GroupCommitter(long flushMillis, long windowMicros, boolean grouping) {
+        this.flushMillis = flushMillis;
+        this.windowMicros = windowMicros;
+        this.grouping = grouping;
+    }
+
+    /**
+     * 提交，直到所在批次刷盘完成才返回
+     * @throws InterruptedException
+     */
+    public void commit() throws InterruptedException {
+        commits.increment();
+        if (!grouping) {
+            synchronized (flushLock) {
+                TimeUnit.MILLISECONDS.sleep(flushMillis);
+                flushes.increment();
+            }
+            return;
+        }
+        while (true) {
+            Batch batch;
+            boolean leader;
+            synchronized (this) {
+                leader = current == null;
+                if (leader) {
+                    current = new Batch();
+                }
+                batch = current;
+            }
+            if (!leader) {
+                batch.done.await();
+                //leader在刷盘前被中断，本批次没有刷盘，重新提交
+                if (batch.flushed) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                synchronized (flushLock) {
+                    //拿到刷盘权后再等待一个窗口才封闭批次，上一批刷盘期间到达的commit、以及上一批刚返回又立即提交的commit都会加入本批次
+                    if (windowMicros > 0) {
+                        TimeUnit.MICROSECONDS.sleep(windowMicros);
+                    }
+                    synchronized (this) {
+                        current = null;
+                    }
+                    TimeUnit.MILLISECONDS.sleep(flushMillis);
+                    flushes.increment();
+                    batch.flushed = true;
+                }
+                return;
+            } finally {
+                //即使leader被中断也要唤醒本批次的其他commit，避免它们永远等待
+                synchronized (this) {
+                    if (current == batch) {
+                        current = null;
+                    }
+                }
+                batch.done.countDown();
+            }
+        }
+    }
+
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * 平均每次刷盘合并的commit数
+     * @return
+     */
+    public double getAverageBatchSize() {
+        long f = flushes.sum();
+        return f == 0 ? 0 : (double) commits.sum() / f;
+    }
+
+    static class Batch {
+        final CountDownLatch done = new CountDownLatch(1);
+        /**
+         * 在countDown之前写入，await返回后读取，CountDownLatch保证了可见性
+         */
+        boolean flushed;
+    }
+}
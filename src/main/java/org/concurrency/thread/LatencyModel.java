@@ -0,0 +1,79 @@
+package org.concurrency.thread;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟连接上一次操作的耗时分布
+ *
+ * 实现需要是线程安全的，同一个LatencyModel会被多个连接、多个线程共用
+ */
+public interface LatencyModel {
+
+    /**
+     * 下一次操作的耗时（纳秒）
+     * @return
+     */
+    long nextNanos();
+
+    /**
+     * 不耗时
+     */
+    static LatencyModel none() {
+        return () -> 0;
+    }
+
+    /**
+     * 固定耗时
+     * @param millis
+     */
+    static LatencyModel fixed(long millis) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return () -> nanos;
+    }
+
+    /**
+     * 对数正态分布：中位数为medianMillis，sigma越大长尾越明显
+     * 比如sigma=0.5时p99约为中位数的3.2倍，sigma=1.0时约为10倍
+     * @param medianMillis
+     * @param sigma
+     */
+    static LatencyModel logNormal(double medianMillis, double sigma) {
+        double mu = Math.log(medianMillis * 1_000_000);
+        return () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+    }
+
+    /**
+     * 按顺序循环回放录制的耗时（纳秒），保留了线上耗时的先后关系（比如一段时间内集中出现的慢请求）
+     * @param traceNanos
+     */
+    static LatencyModel replay(long[] traceNanos) {
+        if (traceNanos.length == 0) {
+            throw new IllegalArgumentException("empty trace");
+        }
+        long[] trace = traceNanos.clone();
+        AtomicLong cursor = new AtomicLong();
+        return () -> trace[(int) (cursor.getAndIncrement() % trace.length)];
+    }
+
+    /**
+     * 从文件读取录制的耗时并回放，每行一个耗时，单位毫秒（可以有小数），空行和#开头的行会被忽略
+     * @param file
+     * @throws IOException
+     */
+    static LatencyModel replay(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        long[] trace = lines.stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .mapToLong(line -> (long) (Double.parseDouble(line) * 1_000_000))
+                .toArray();
+        return replay(trace);
+    }
+}
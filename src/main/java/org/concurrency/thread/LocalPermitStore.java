@@ -0,0 +1,100 @@
+package org.concurrency.thread;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 单进程内的PermitStore，语义与RedisPermitStore一致（包括租约过期），用于在没有Redis的环境下测试和演示
+ */
+public class LocalPermitStore implements PermitStore {
+
+    private final int budget;
+    private final long leaseTtlMillis;
+    /**
+     * 每个节点的租用数和租约到期时间，只在持有this的锁时读写
+     */
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    /**
+     * @param budget 全局许可总数
+     * @param leaseTtlMillis 租约有效期，节点超过该时间没有续约则收回它的许可
+     */
+    public LocalPermitStore(int budget, long leaseTtlMillis) {
+        this.budget = budget;
+        this.leaseTtlMillis = leaseTtlMillis;
+    }
+
+    @Override
+    public synchronized int lease(String node, int permits) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        int used = 0;
+        for (Lease lease : leases.values()) {
+            used += lease.permits;
+        }
+        int granted = Math.max(0, Math.min(permits, budget - used));
+        Lease lease = leases.get(node);
+        if (lease == null) {
+            if (granted == 0) {
+                return 0;
+            }
+            lease = new Lease();
+            leases.put(node, lease);
+        }
+        lease.permits += granted;
+        lease.expireAt = now + leaseTtlMillis;
+        return granted;
+    }
+
+    @Override
+    public synchronized boolean renew(String node) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        Lease lease = leases.get(node);
+        if (lease == null) {
+            return false;
+        }
+        lease.expireAt = now + leaseTtlMillis;
+        return true;
+    }
+
+    @Override
+    public synchronized void release(String node, int permits) {
+        Lease lease = leases.get(node);
+        if (lease == null) {
+            return;
+        }
+        lease.permits -= Math.min(permits, lease.permits);
+        if (lease.permits == 0) {
+            leases.remove(node);
+        }
+    }
+
+    /**
+     * 所有节点当前租用的许可数之和
+     * @return
+     */
+    public synchronized int getLeased() {
+        expire(System.currentTimeMillis());
+        int used = 0;
+        for (Lease lease : leases.values()) {
+            used += lease.permits;
+        }
+        return used;
+    }
+
+    private void expire(long now) {
+        Iterator<Lease> it = leases.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expireAt <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    private static class Lease {
+        int permits;
+        long expireAt;
+    }
+}
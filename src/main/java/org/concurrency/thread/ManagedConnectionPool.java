@@ -0,0 +1,1308 @@
+package org.concurrency.thread;
+
+import org.concurrency.util.TimerWheel;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 在ConnectionPool（「等待超时模式」的简单示例）的基础上，按生产环境连接池的要求扩展的连接池
+ *
+ * 释放连接时不用notifyAll()唤醒所有等待线程，而是把连接直接交给等待最久的线程（FIFO），并且只唤醒这一个线程
+ *
+ * 每次借出都返回一个新的BorrowedConnection，同一次借出只有第一次close()/releaseConnection()有效，
+ * 线程A归还后又误调用一次close()时，不会把已经被线程B借走的连接归还掉
+ *
+ * 连接池大小在[minIdle, maxPoolSize]之间伸缩：
+ * 1. 连接按需创建，等待线程数超过正在创建的连接数时才创建新连接
+ * 2. 空闲超时或超过最长存活时间的连接会被回收
+ * 3. 创建由后台线程（creator）完成，回收由另一个后台线程（housekeeper）完成，都不占用获取连接的线程
+ *
+ * 获取等待时间、持有时间、超时次数、创建耗时等指标记录在ConnectionPoolMetrics中，可以注册为MBean
+ *
+ * 除了阻塞的fetchConnection，还可以通过acquireAsync异步获取连接，两者在同一个等待队列中排队；
+ * fetchConnections/releaseConnections一次获取/释放多个连接，获取时要么全部拿到要么一个也不拿
+ *
+ * 获取连接时可以指定优先级：释放的连接先交给等待最久的INTERACTIVE请求，没有时才交给BATCH请求；
+ * PoolConfig.setReservedConnections为INTERACTIVE请求保留一部分连接，BATCH请求同时最多只能借出maxPoolSize - reserved个连接
+ *
+ * 可选的泄漏检测：借出的连接登记在时间轮中，超过阈值仍未归还时报告持有者；
+ * 可选的空闲验证：只有空闲时间超过validationIdleMillis的连接在借出时才调用isValid，刚归还的连接直接复用
+ *
+ * 启用自适应并发限制（PoolConfig.setAdaptiveConcurrencyLimit）后，获取连接前先经过ConcurrencyLimiter，
+ * 超过限制的请求立即返回null，不再排队等到超时
+ */
+public class ManagedConnectionPool {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    /**
+     * 验证连接时isValid的超时时间
+     */
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    /**
+     * 泄漏检测时间轮的格数，每格为阈值的1/16，所有任务都在一圈以内
+     */
+    private static final int LEAK_WHEEL_SIZE = 32;
+    /**
+     * 创建连接失败、但还有借出的连接可以等时，过多久重新尝试创建
+     */
+    private static final long CREATE_RETRY_MILLIS = 500;
+
+    private final PoolConfig config;
+    private final String poolName;
+    private final ConnectionPoolMetrics metrics = new ConnectionPoolMetrics(this);
+
+    /**
+     * 双向队列维护空闲连接，归还的连接放在队头，获取时也从队头取，
+     * 这样多余的连接会集中在队尾，空闲超时后被回收
+     */
+    private LinkedList<PooledConnection> pool = new LinkedList<>();
+
+    /**
+     * 等待获取连接的线程或异步请求，每个优先级一个队列，队列内按到达顺序排队
+     */
+    private ArrayDeque<Waiter> interactiveWaiters = new ArrayDeque<>();
+    private ArrayDeque<Waiter> batchWaiters = new ArrayDeque<>();
+    /**
+     * 每个优先级的等待者还需要的连接数（按Priority.ordinal()下标），只在持有pool的monitor时读写
+     */
+    private final int[] demand = new int[Priority.values().length];
+
+    /**
+     * 已创建的连接数（空闲 + 借出），只在持有pool的monitor时读写
+     */
+    private int totalConnections;
+    /**
+     * 已提交给creator但还没创建完成的连接数，只在持有pool的monitor时读写
+     */
+    private int pendingCreates;
+    /**
+     * BATCH请求借出的连接数及其上限（maxPoolSize - reservedConnections），只在持有pool的monitor时读写
+     */
+    private int batchInUse;
+    private final int batchLimit;
+    private boolean closed;
+
+    /**
+     * 负责定期回收连接和泄漏检测的后台线程
+     */
+    private final ScheduledThreadPoolExecutor housekeeper;
+    /**
+     * 负责创建连接的后台线程：创建连接要经过网络往返，可能阻塞很久，不能拖慢回收、泄漏检测和异步请求的超时
+     */
+    private final ScheduledThreadPoolExecutor creator;
+    /**
+     * 负责异步请求超时的后台线程：超时的future在这个线程中完成，调用方的回调不会占用housekeeper和creator
+     */
+    private final ScheduledThreadPoolExecutor asyncTimer;
+
+    /**
+     * 自适应并发限制，未启用时为null
+     */
+    private final ConcurrencyLimiter limiter;
+
+    /**
+     * 多个节点共享的分布式许可，未配置时为null
+     */
+    private final DistributedPermits permits;
+
+    /**
+     * 泄漏检测的时间轮，只在持有pool的monitor时读写，未开启时为null
+     */
+    private final TimerWheel<PooledConnection> leakWheel;
+    private final long leakThresholdNanos;
+    /**
+     * 空闲时间超过该值的连接在借出时先验证，0表示不验证
+     */
+    private final long validationIdleNanos;
+
+    /**
+     * 构造函数 初始化连接池，最多initSize个连接，连接在需要时才创建
+     * @param initSize
+     */
+    public ManagedConnectionPool(int initSize) {
+        this(new PoolConfig(0, initSize));
+    }
+
+    public ManagedConnectionPool(PoolConfig config) {
+        config.validate();
+        this.config = config;
+        this.poolName = config.getPoolName() != null ? config.getPoolName() : "ManagedConnectionPool-" + POOL_NUMBER.incrementAndGet();
+        //初始限制为连接池大小，即刚开始时不排队，之后根据延迟的变化向上探测或者减小
+        int maxPoolSize = config.getMaxPoolSize();
+        this.limiter = config.isAdaptiveConcurrencyLimit() ? new ConcurrencyLimiter(maxPoolSize, 1, maxPoolSize * 4) : null;
+        this.permits = config.getDistributedPermits();
+        this.batchLimit = maxPoolSize - config.getReservedConnections();
+        this.validationIdleNanos = Math.max(0, TimeUnit.MILLISECONDS.toNanos(config.getValidationIdleMillis()));
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getLeakDetectionThresholdMillis());
+        long leakTickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), leakThresholdNanos / 16);
+        this.leakWheel = leakThresholdNanos > 0 ? new TimerWheel<>(leakTickNanos, LEAK_WHEEL_SIZE) : null;
+        this.housekeeper = newDaemonExecutor(poolName + "-housekeeper");
+        this.creator = newDaemonExecutor(poolName + "-creator");
+        this.asyncTimer = newDaemonExecutor(poolName + "-async-timer");
+        //异步请求拿到连接后会取消超时任务，取消的任务立即从队列中移除
+        asyncTimer.setRemoveOnCancelPolicy(true);
+        long period = config.getHousekeepingPeriodMillis();
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+        if (leakWheel != null) {
+            housekeeper.scheduleAtFixedRate(this::detectLeaks, leakTickNanos, leakTickNanos, TimeUnit.NANOSECONDS);
+        }
+        synchronized (pool) {
+            fillPool();
+        }
+        if (config.isRegisterMbeans()) {
+            registerMbean();
+        }
+    }
+
+    /**
+     * 以INTERACTIVE优先级获取连接，在millis内如果未获取到连接，则返回null；启用了自适应并发限制时，超过限制的请求立即返回null
+     * @param millis
+     * @return
+     * @throws InterruptedException
+     * @throws IllegalStateException 连接池已关闭（包括等待期间被关闭），或者创建连接失败且没有借出的连接可以等
+     */
+    public Connection fetchConnection(long millis) throws InterruptedException {
+        return fetchConnection(millis, Priority.INTERACTIVE);
+    }
+
+    /**
+     * 以指定的优先级获取连接，超时语义与fetchConnection(long)相同
+     * @param millis
+     * @param priority
+     * @return
+     * @throws InterruptedException
+     */
+    public Connection fetchConnection(long millis, Priority priority) throws InterruptedException {
+        PooledConnection[] connections = acquire(1, millis, priority);
+        return connections != null ? lend(connections[0]) : null;
+    }
+
+    /**
+     * 以INTERACTIVE优先级一次获取count个连接，要么全部拿到，要么一个也不拿
+     * @param count
+     * @param millis
+     * @return 超时或被自适应并发限制拒绝时返回null
+     * @throws InterruptedException
+     */
+    public List<Connection> fetchConnections(int count, long millis) throws InterruptedException {
+        return fetchConnections(count, millis, Priority.INTERACTIVE);
+    }
+
+    /**
+     * 一次获取count个连接，要么全部拿到，要么一个也不拿
+     *
+     * 逐个调用fetchConnection时，多个线程各自拿到一部分连接后互相等待对方释放，连接池快用完时就会一直等到超时；
+     * 这里整个请求只排一次队，排到队头的请求把释放的连接攒在自己手上，攒够count个才返回，超时则把攒到的连接交还给其他请求。
+     * 同一时刻只有队头的请求会攒连接，所以不会出现多个请求各持有一部分连接、谁也拿不齐的情况。
+     * @param count 不能超过maxPoolSize，BATCH请求不能超过maxPoolSize - reservedConnections
+     * @param millis
+     * @param priority
+     * @return 超时或被自适应并发限制拒绝时返回null
+     * @throws InterruptedException
+     */
+    public List<Connection> fetchConnections(int count, long millis, Priority priority) throws InterruptedException {
+        int max = priority == Priority.BATCH ? batchLimit : config.getMaxPoolSize();
+        if (count < 1 || count > max) {
+            throw new IllegalArgumentException("count must be between 1 and " + max);
+        }
+        PooledConnection[] connections = acquire(count, millis, priority);
+        if (connections == null) {
+            return null;
+        }
+        List<Connection> borrowed = new ArrayList<>(count);
+        for (PooledConnection connection : connections) {
+            borrowed.add(lend(connection));
+        }
+        return borrowed;
+    }
+
+    /**
+     * 释放连接池，只接受从本连接池获取的连接，同一次借出的连接重复释放会被忽略
+     * @param connection
+     */
+    public void releaseConnection(Connection connection) {
+        if (isReleasable(connection)) {
+            recycle(Collections.singletonList(((BorrowedConnection) connection).pooled), true);
+        }
+    }
+
+    /**
+     * 一次释放多个连接，只获取一次monitor，规则与releaseConnection相同
+     * @param connections
+     */
+    public void releaseConnections(Collection<? extends Connection> connections) {
+        List<PooledConnection> pooled = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            if (isReleasable(connection)) {
+                pooled.add(((BorrowedConnection) connection).pooled);
+            }
+        }
+        if (!pooled.isEmpty()) {
+            recycle(pooled, true);
+        }
+    }
+
+    /**
+     * 异步获取连接，不占用调用线程
+     *
+     * 有空闲连接时返回已完成的CompletableFuture；否则和fetchConnection在同一个FIFO队列中排队，
+     * 连接被释放时直接完成该future，超时由asyncTimer上的定时任务完成（结果为null，与fetchConnection的超时语义一致）。
+     * 注意future的回调可能在释放连接的线程、creator线程或asyncTimer线程中执行，回调中不要做耗时操作。
+     * 启用了自适应并发限制时，超过限制的请求返回结果为null的已完成future。
+     * 配置了分布式许可时，本地许可不够的部分由DistributedPermits的后台线程租用，调用线程不访问PermitStore，等待许可的时间也计入millis。
+     * 异步获取的连接不做空闲验证（验证需要一次网络往返，会阻塞完成future的线程）
+     * @param millis 小于等于0表示一直等待
+     * @return
+     */
+    public CompletableFuture<Connection> acquireAsync(long millis) {
+        return acquireAsync(millis, Priority.INTERACTIVE);
+    }
+
+    /**
+     * 以指定的优先级异步获取连接
+     * @param millis 小于等于0表示一直等待
+     * @param priority
+     * @return
+     */
+    public CompletableFuture<Connection> acquireAsync(long millis, Priority priority) {
+        long start = System.nanoTime();
+        CompletableFuture<Connection> future = new CompletableFuture<>();
+        if (!admit(1)) {
+            future.complete(null);
+            return future;
+        }
+        if (permits == null) {
+            enqueueAsync(future, millis, priority, start);
+            return future;
+        }
+        //本地许可不够时需要访问PermitStore，由DistributedPermits的后台线程租用，拿到许可后再排队，不阻塞调用线程
+        permits.acquireAsync(1, millis).whenComplete((acquired, e) -> {
+            long remaining = millis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (acquired == null || !acquired) {
+                metrics.timeouts.increment();
+                if (limiter != null) {
+                    limiter.onIgnore();
+                }
+                future.complete(null);
+            } else if (future.isDone()) {
+                //等待许可期间调用方取消了future
+                releaseAdmission(1, false);
+            } else if (millis > 0 && remaining <= 0) {
+                metrics.timeouts.increment();
+                releaseAdmission(1, true);
+                future.complete(null);
+            } else {
+                enqueueAsync(future, millis > 0 ? remaining : 0, priority, start);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 已经通过自适应并发限制和分布式许可的异步请求：有空闲连接时直接完成future，否则排队
+     * @param future
+     * @param millis 剩余的超时时间，小于等于0表示一直等待
+     * @param priority
+     * @param start 开始获取连接的时间
+     */
+    private void enqueueAsync(CompletableFuture<Connection> future, long millis, Priority priority, long start) {
+        Throwable acquiredAt = sampleAcquiredAt();
+        Waiter waiter;
+        PooledConnection[] connections;
+        List<PooledConnection> expired = null;
+        List<Waiter> ready = null;
+        synchronized (pool) {
+            if (closed) {
+                releaseAdmission(1, false);
+                future.completeExceptionally(new IllegalStateException("pool is shut down"));
+                return;
+            }
+            connections = takeIdle(1, priority, start, acquiredAt);
+            if (connections != null) {
+                waiter = null;
+            } else {
+                waiter = new Waiter(null, future, priority, 1, start, acquiredAt);
+                expired = enqueue(waiter);
+                ready = drainIdle();
+                if (millis > 0 && !waiter.done) {
+                    waiter.timeoutTask = asyncTimer.schedule(() -> {
+                        if (cancel(waiter)) {
+                            metrics.timeouts.increment();
+                            releaseAdmission(1, true);
+                            future.complete(null);
+                        }
+                    }, millis, TimeUnit.MILLISECONDS);
+                }
+                fillPool();
+            }
+        }
+        if (waiter == null) {
+            metrics.acquireWait.record(System.nanoTime() - start);
+            //future可能在等待分布式许可期间被调用方取消
+            if (!future.complete(lend(connections[0]))) {
+                recycle(Collections.singletonList(connections[0]), false);
+            }
+            return;
+        }
+        closeAll(expired);
+        signalAll(ready);
+        //调用方取消future时，把waiter从队列中移除
+        future.whenComplete((connection, e) -> {
+            if (future.isCancelled() && cancel(waiter)) {
+                releaseAdmission(1, false);
+                if (waiter.timeoutTask != null) {
+                    waiter.timeoutTask.cancel(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * 关闭连接池：停止后台线程并关闭所有空闲连接，借出的连接在归还时关闭；
+     * 所有排队的请求（包括一直等待的线程）立即以IllegalStateException结束
+     */
+    public void shutdown() {
+        List<PooledConnection> idle;
+        List<Waiter> failed;
+        synchronized (pool) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            totalConnections -= pool.size();
+            idle = new ArrayList<>(pool);
+            pool.clear();
+            //已经攒到的连接在closed之后放回时直接加入idle，一起关闭
+            failed = failAllWaiters("pool is shut down", null, idle);
+        }
+        housekeeper.shutdownNow();
+        creator.shutdownNow();
+        asyncTimer.shutdownNow();
+        for (Waiter waiter : failed) {
+            fail(waiter);
+        }
+        for (PooledConnection connection : idle) {
+            closeQuietly(connection);
+        }
+        if (config.isRegisterMbeans()) {
+            unregisterMbean();
+        }
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public ConnectionPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getTotalConnections() {
+        synchronized (pool) {
+            return totalConnections;
+        }
+    }
+
+    public int getIdleConnections() {
+        synchronized (pool) {
+            return pool.size();
+        }
+    }
+
+    public int getWaitingThreads() {
+        synchronized (pool) {
+            return interactiveWaiters.size() + batchWaiters.size();
+        }
+    }
+
+    /**
+     * 当前的并发限制，未启用自适应并发限制时返回-1
+     * @return
+     */
+    public int getConcurrencyLimit() {
+        return limiter != null ? limiter.getLimit() : -1;
+    }
+
+    /**
+     * 为这次借出创建交给调用方的连接
+     * @param connection
+     * @return
+     */
+    private BorrowedConnection lend(PooledConnection connection) {
+        BorrowedConnection borrowed = new BorrowedConnection(connection);
+        connection.borrowed = borrowed;
+        return borrowed;
+    }
+
+    /**
+     * 是否是从本连接池借出、并且这次借出还没有归还过的连接，是则标记为已归还
+     * @param connection
+     * @return
+     */
+    private boolean isReleasable(Connection connection) {
+        if (!(connection instanceof BorrowedConnection)) {
+            return false;
+        }
+        BorrowedConnection borrowed = (BorrowedConnection) connection;
+        return borrowed.pooled.pool == this && borrowed.released.compareAndSet(false, true);
+    }
+
+    /**
+     * 阻塞地获取count个连接
+     *
+     * 拿到的连接中有空闲时间超过validationIdleMillis的，先验证是否可用；有连接已失效时，
+     * 关闭失效的连接，其余的放回连接池，在剩余的时间内重新获取
+     * @param count
+     * @param millis 小于等于0表示一直等待
+     * @param priority
+     * @return 超时或被拒绝时返回null
+     * @throws InterruptedException
+     */
+    private PooledConnection[] acquire(int count, long millis, Priority priority) throws InterruptedException {
+        long start = System.nanoTime();
+        if (!admit(count) || !acquirePermits(count, millis)) {
+            return null;
+        }
+        Throwable acquiredAt = sampleAcquiredAt();
+        //用System.nanoTime()计算截止时间，不受系统时钟调整的影响
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (true) {
+            PooledConnection[] connections = await(count, millis > 0, deadline, priority, start, acquiredAt);
+            if (connections == null) {
+                return null;
+            }
+            if (validate(connections)) {
+                metrics.acquireWait.record(System.nanoTime() - start);
+                return connections;
+            }
+            returnConnections(Arrays.asList(connections), false);
+            if (millis > 0 && deadline - System.nanoTime() <= 0) {
+                metrics.timeouts.increment();
+                releaseAdmission(count, true);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 先尝试直接取count个空闲连接；不够时排队，在monitor之外park，等待释放或新建的连接攒够count个
+     * @param count
+     * @param timed 为false时一直等待
+     * @param deadline
+     * @param priority
+     * @param start 开始获取连接的时间
+     * @param acquiredAt 采样记录的获取连接的调用栈，可以为null
+     * @return 超时返回null
+     * @throws InterruptedException
+     */
+    private PooledConnection[] await(int count, boolean timed, long deadline, Priority priority, long start,
+                                     Throwable acquiredAt) throws InterruptedException {
+        Waiter waiter;
+        List<PooledConnection> expired;
+        List<Waiter> ready;
+        synchronized (pool) {
+            if (closed) {
+                releaseAdmission(count, false);
+                throw new IllegalStateException("pool is shut down");
+            }
+            //有足够的可用空闲连接时直接返回
+            PooledConnection[] connections = takeIdle(count, priority, start, acquiredAt);
+            if (connections != null) {
+                return connections;
+            }
+            waiter = new Waiter(Thread.currentThread(), null, priority, count, start, acquiredAt);
+            expired = enqueue(waiter);
+            //空闲连接不够count个时先攒着
+            ready = drainIdle();
+            //等待的连接数比正在创建的连接多，通知creator创建新连接
+            fillPool();
+        }
+        closeAll(expired);
+        signalAll(ready);
+
+        //完全超时时一直等待直到拿到连接，或者被shutdown()等唤醒后失败
+        if (!timed) {
+            while (!waiter.done) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    abort(waiter);
+                }
+            }
+            return granted(waiter);
+        }
+
+        while (!waiter.done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                abort(waiter);
+            }
+        }
+        if (!waiter.done && cancel(waiter)) {
+            metrics.timeouts.increment();
+            releaseAdmission(count, true);
+            return null;
+        }
+        //超时的同时拿齐了连接，仍然返回这些连接
+        return granted(waiter);
+    }
+
+    /**
+     * 已经结束等待的waiter的结果：拿齐的连接，或者在调用线程中抛出失败的原因
+     * @param waiter
+     * @return
+     */
+    private PooledConnection[] granted(Waiter waiter) {
+        IllegalStateException failure = waiter.failure;
+        if (failure != null) {
+            releaseAdmission(waiter.count, false);
+            throw new IllegalStateException(failure.getMessage(), failure.getCause());
+        }
+        return waiter.connections;
+    }
+
+    /**
+     * 验证空闲时间较长的连接是否可用，失效的连接标记为broken，归还时被关闭
+     * @param connections
+     * @return 全部可用时返回true
+     */
+    private boolean validate(PooledConnection[] connections) {
+        boolean valid = true;
+        for (PooledConnection connection : connections) {
+            if (!connection.needsValidation) {
+                continue;
+            }
+            connection.needsValidation = false;
+            boolean alive;
+            try {
+                alive = connection.getDelegate().isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                alive = false;
+            }
+            if (!alive) {
+                connection.broken = true;
+                metrics.validationFailures.increment();
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * 连接回到连接池，并通知自适应并发限制这次请求已经结束，归还分布式许可
+     * @param connections
+     * @param release 是否是调用方释放（需要检查重复释放并记录持有时间），否则是移交给请求失败后的回收
+     */
+    private void recycle(List<PooledConnection> connections, boolean release) {
+        long[] requestNanos = returnConnections(connections, release);
+        if (limiter != null) {
+            for (long nanos : requestNanos) {
+                if (release) {
+                    limiter.onSuccess(nanos);
+                } else {
+                    limiter.onIgnore();
+                }
+            }
+        }
+        if (permits != null && requestNanos.length > 0) {
+            permits.release(requestNanos.length);
+        }
+    }
+
+    /**
+     * 连接回到连接池：已失效或超过最长存活时间的直接关闭，其余的放回空闲队列，再交给排在队头的waiter
+     * @param connections
+     * @param recordHoldTime 是否记录持有时间
+     * @return 每个连接这次请求的总耗时（等待 + 持有），重复释放的连接不计入
+     */
+    private long[] returnConnections(List<PooledConnection> connections, boolean recordHoldTime) {
+        long now = System.nanoTime();
+        long[] requestNanos = new long[connections.size()];
+        int returned = 0;
+        List<PooledConnection> expired = null;
+        List<Waiter> ready;
+        synchronized (pool) {
+            for (PooledConnection pooled : connections) {
+                if (!pooled.inUse) {
+                    continue;
+                }
+                unborrow(pooled);
+                if (recordHoldTime) {
+                    metrics.holdTime.record(now - pooled.borrowTime);
+                }
+                //连接交给下一个waiter时会改写requestTime，先算出这次请求的总耗时
+                requestNanos[returned++] = now - pooled.requestTime;
+                expired = putBack(pooled, now, expired);
+            }
+            //归还的是BATCH连接时，被保留份额挡住的BATCH请求也可能可以拿走空闲连接了
+            ready = drainIdle();
+            if (expired != null) {
+                fillPool();
+            }
+        }
+        closeAll(expired);
+        signalAll(ready);
+        return returned == requestNanos.length ? requestNanos : Arrays.copyOf(requestNanos, returned);
+    }
+
+    /**
+     * 通知拿齐了连接的waiter，必须在monitor之外调用：
+     * 阻塞的线程只唤醒它这一个；异步请求直接完成future，如果future已经被取消，连接重新回到连接池
+     * @param waiter
+     */
+    private void signal(Waiter waiter) {
+        if (waiter.future == null) {
+            LockSupport.unpark(waiter.thread);
+            return;
+        }
+        if (waiter.timeoutTask != null) {
+            waiter.timeoutTask.cancel(false);
+        }
+        PooledConnection connection = waiter.connections[0];
+        metrics.acquireWait.record(System.nanoTime() - waiter.start);
+        if (!waiter.future.complete(lend(connection))) {
+            recycle(Collections.singletonList(connection), false);
+        }
+    }
+
+    /**
+     * 通知失败的waiter，必须在monitor之外调用：阻塞的线程被唤醒后自己抛出异常并归还permit，异步请求直接以异常完成future
+     * @param waiter
+     */
+    private void fail(Waiter waiter) {
+        if (waiter.future == null) {
+            LockSupport.unpark(waiter.thread);
+            return;
+        }
+        if (waiter.timeoutTask != null) {
+            waiter.timeoutTask.cancel(false);
+        }
+        releaseAdmission(waiter.count, false);
+        waiter.future.completeExceptionally(waiter.failure);
+    }
+
+    /**
+     * 让所有排队的waiter失败，已经攒到的连接放回空闲队列（连接池已关闭时放入expired），需要持有pool的monitor
+     * @param message
+     * @param cause 可以为null
+     * @param expired 收集需要在monitor之外关闭的连接
+     * @return 失败的waiter，需要在monitor之外调用fail
+     */
+    private List<Waiter> failAllWaiters(String message, Throwable cause, List<PooledConnection> expired) {
+        List<Waiter> failed = new ArrayList<>();
+        for (ArrayDeque<Waiter> queue : Arrays.asList(interactiveWaiters, batchWaiters)) {
+            Waiter waiter;
+            while ((waiter = queue.pollFirst()) != null) {
+                List<PooledConnection> returned = returnGranted(waiter);
+                if (returned != null) {
+                    expired.addAll(returned);
+                }
+                demand[waiter.priority.ordinal()] -= waiter.count;
+                waiter.failure = new IllegalStateException(message, cause);
+                waiter.done = true;
+                failed.add(waiter);
+            }
+        }
+        return failed;
+    }
+
+    private void signalAll(List<Waiter> ready) {
+        if (ready != null) {
+            for (Waiter waiter : ready) {
+                signal(waiter);
+            }
+        }
+    }
+
+    /**
+     * waiter排队，需要持有pool的monitor，之后需要调用drainIdle把空闲连接交给队头的waiter
+     *
+     * INTERACTIVE请求到来时，如果排在BATCH队头的请求已经攒了一部分连接，先把这些连接收回来，
+     * 保证同一时刻只有一个请求在攒连接
+     * @param waiter
+     * @return 收回的连接中已过期、需要在monitor之外关闭的连接
+     */
+    private List<PooledConnection> enqueue(Waiter waiter) {
+        waiters(waiter.priority).addLast(waiter);
+        demand[waiter.priority.ordinal()] += waiter.count;
+        if (waiter.priority == Priority.INTERACTIVE) {
+            Waiter batchHead = batchWaiters.peekFirst();
+            if (batchHead != null && batchHead.granted > 0) {
+                return returnGranted(batchHead);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把空闲连接逐个交给当前可以接收连接的waiter，直到没有空闲连接或没有可以接收的waiter，需要持有pool的monitor
+     * @return 拿齐了连接的waiter，没有时返回null，需要在monitor之外调用signal
+     */
+    private List<Waiter> drainIdle() {
+        List<Waiter> ready = null;
+        while (!pool.isEmpty()) {
+            Waiter waiter = nextWaiter();
+            if (waiter == null) {
+                break;
+            }
+            PooledConnection connection = pool.removeFirst();
+            borrow(connection, waiter.priority, waiter.start, waiter.thread, waiter.acquiredAt);
+            waiter.connections[waiter.granted++] = connection;
+            demand[waiter.priority.ordinal()]--;
+            if (waiter.granted == waiter.count) {
+                waiters(waiter.priority).pollFirst();
+                waiter.done = true;
+                if (ready == null) {
+                    ready = new ArrayList<>(1);
+                }
+                ready.add(waiter);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * 下一个可以接收连接的waiter（不出队）：先看INTERACTIVE队列，BATCH请求只有在未超过batchLimit时才能拿到连接，需要持有pool的monitor
+     * @return
+     */
+    private Waiter nextWaiter() {
+        Waiter waiter = interactiveWaiters.peekFirst();
+        if (waiter == null && batchInUse < batchLimit) {
+            waiter = batchWaiters.peekFirst();
+        }
+        return waiter;
+    }
+
+    /**
+     * 获取连接的快速路径：一次取出count个空闲连接，需要持有pool的monitor
+     *
+     * 同一优先级有请求在排队时不能插队；BATCH请求取完之后不能超过batchLimit
+     * @param count
+     * @param priority
+     * @param start 开始获取连接的时间
+     * @param acquiredAt
+     * @return 没有足够的可用空闲连接时返回null
+     */
+    private PooledConnection[] takeIdle(int count, Priority priority, long start, Throwable acquiredAt) {
+        if (pool.size() < count || !waiters(priority).isEmpty()) {
+            return null;
+        }
+        if (priority == Priority.BATCH && batchInUse + count > batchLimit) {
+            return null;
+        }
+        PooledConnection[] connections = new PooledConnection[count];
+        for (int i = 0; i < count; i++) {
+            connections[i] = pool.removeFirst();
+            borrow(connections[i], priority, start, Thread.currentThread(), acquiredAt);
+        }
+        return connections;
+    }
+
+    /**
+     * 标记连接已借出，需要持有pool的monitor
+     *
+     * 空闲时间超过validationIdleMillis的连接标记为需要验证；开启了泄漏检测时在时间轮中登记，到期仍未归还则报告
+     * @param connection
+     * @param priority
+     * @param requestTime 借出者开始获取连接的时间
+     * @param holder 借出连接的线程，异步请求为null
+     * @param acquiredAt 采样记录的获取连接的调用栈，可以为null
+     */
+    private void borrow(PooledConnection connection, Priority priority, long requestTime, Thread holder, Throwable acquiredAt) {
+        long now = System.nanoTime();
+        connection.inUse = true;
+        connection.borrowTime = now;
+        connection.requestTime = requestTime;
+        connection.priority = priority;
+        connection.needsValidation = validationIdleNanos > 0 && now - connection.lastAccessTime > validationIdleNanos;
+        if (priority == Priority.BATCH) {
+            batchInUse++;
+        }
+        if (leakWheel != null) {
+            connection.holder = holder;
+            connection.acquiredAt = acquiredAt;
+            connection.leakTimeout = leakWheel.schedule(connection, leakThresholdNanos);
+        }
+    }
+
+    private void unborrow(PooledConnection connection) {
+        connection.inUse = false;
+        if (connection.priority == Priority.BATCH) {
+            batchInUse--;
+        }
+        if (leakWheel != null) {
+            if (connection.leakTimeout != null) {
+                connection.leakTimeout.cancel();
+                connection.leakTimeout = null;
+            }
+            connection.holder = null;
+            connection.acquiredAt = null;
+        }
+    }
+
+    /**
+     * 把未借出的连接放回空闲队列头部，连接池已关闭、连接已失效或已过期时不放回，需要持有pool的monitor
+     * @param connection
+     * @param now
+     * @param expired 需要在monitor之外关闭的连接，为null时按需创建
+     * @return
+     */
+    private List<PooledConnection> putBack(PooledConnection connection, long now, List<PooledConnection> expired) {
+        if (closed || connection.broken || isExpired(connection, now)) {
+            totalConnections--;
+            if (expired == null) {
+                expired = new ArrayList<>(1);
+            }
+            expired.add(connection);
+        } else {
+            connection.lastAccessTime = now;
+            pool.addFirst(connection);
+        }
+        return expired;
+    }
+
+    /**
+     * 收回waiter已经攒到的连接，放回空闲队列，需要持有pool的monitor
+     * @param waiter
+     * @return 需要在monitor之外关闭的连接
+     */
+    private List<PooledConnection> returnGranted(Waiter waiter) {
+        long now = System.nanoTime();
+        List<PooledConnection> expired = null;
+        for (int i = 0; i < waiter.granted; i++) {
+            unborrow(waiter.connections[i]);
+            expired = putBack(waiter.connections[i], now, expired);
+            waiter.connections[i] = null;
+        }
+        demand[waiter.priority.ordinal()] += waiter.granted;
+        waiter.granted = 0;
+        return expired;
+    }
+
+    private ArrayDeque<Waiter> waiters(Priority priority) {
+        return priority == Priority.BATCH ? batchWaiters : interactiveWaiters;
+    }
+
+    /**
+     * 根据minIdle和等待的连接数决定还需要创建多少连接，交给creator异步创建，需要持有pool的monitor
+     */
+    private void fillPool() {
+        if (closed) {
+            return;
+        }
+        int max = config.getMaxPoolSize();
+        while (totalConnections + pendingCreates < max
+                && (totalConnections + pendingCreates < config.getMinIdle() || servableDemand() > pendingCreates)) {
+            pendingCreates++;
+            creator.execute(this::createConnection);
+        }
+    }
+
+    /**
+     * 新连接可以交给的waiter还需要的连接数：被batchLimit挡住的BATCH请求不计入，需要持有pool的monitor
+     * @return
+     */
+    private int servableDemand() {
+        return demand[Priority.INTERACTIVE.ordinal()]
+                + Math.min(demand[Priority.BATCH.ordinal()], Math.max(0, batchLimit - batchInUse));
+    }
+
+    /**
+     * 在creator线程中创建连接，创建完成后交给等待线程或者放入空闲队列
+     */
+    private void createConnection() {
+        PooledConnection connection = null;
+        Exception failure = null;
+        long start = System.nanoTime();
+        try {
+            connection = new PooledConnection(config.getConnectionFactory().call(), this, config.getStatementCacheSize());
+            metrics.creationTime.record(System.nanoTime() - start);
+        } catch (Exception e) {
+            e.printStackTrace();
+            failure = e;
+        }
+        List<PooledConnection> expired;
+        List<Waiter> ready;
+        if (connection == null) {
+            List<PooledConnection> returned = new ArrayList<>();
+            List<Waiter> failed = Collections.emptyList();
+            synchronized (pool) {
+                pendingCreates--;
+                if (totalConnections == 0 && pendingCreates == 0) {
+                    //没有借出的连接会被归还，也没有其他正在创建的连接，排队的请求不可能再拿到连接，立即失败
+                    failed = failAllWaiters("failed to create connection", failure, returned);
+                } else if (totalConnections > 0 && !closed) {
+                    //借出的连接归还时仍然可以交给排队的请求，同时稍后重试创建
+                    creator.schedule(this::retryFill, CREATE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            closeAll(returned);
+            for (Waiter waiter : failed) {
+                fail(waiter);
+            }
+            return;
+        }
+        synchronized (pool) {
+            pendingCreates--;
+            totalConnections++;
+            expired = putBack(connection, System.nanoTime(), null);
+            ready = drainIdle();
+        }
+        closeAll(expired);
+        signalAll(ready);
+    }
+
+    private void retryFill() {
+        synchronized (pool) {
+            fillPool();
+        }
+    }
+
+    /**
+     * 后台巡检：从最久未使用的连接开始，回收空闲超时（不低于minIdle）和超过最长存活时间的连接，然后补足minIdle
+     */
+    private void housekeep() {
+        long now = System.nanoTime();
+        long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeoutMillis());
+        List<PooledConnection> evicted = new ArrayList<>();
+        synchronized (pool) {
+            Iterator<PooledConnection> it = pool.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                boolean idleTooLong = idleTimeout > 0 && now - connection.lastAccessTime > idleTimeout
+                        && totalConnections > config.getMinIdle();
+                if (idleTooLong || isExpired(connection, now)) {
+                    it.remove();
+                    totalConnections--;
+                    evicted.add(connection);
+                }
+            }
+            fillPool();
+        }
+        for (PooledConnection connection : evicted) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * 按leakDetectionSampleRate采样，在获取连接的线程中记录调用栈，未开启泄漏检测或未采样到时返回null
+     * @return
+     */
+    private Throwable sampleAcquiredAt() {
+        if (leakWheel == null) {
+            return null;
+        }
+        double rate = config.getLeakDetectionSampleRate();
+        if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return null;
+        }
+        return new Throwable();
+    }
+
+    /**
+     * 在housekeeper线程中定时推进时间轮，报告借出时间超过leakDetectionThresholdMillis仍未归还的连接
+     *
+     * 采样到的连接打印获取连接时的调用栈，其余的打印持有连接的线程当前的调用栈（只有疑似泄漏时才获取，不影响正常借出）
+     */
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        List<Exception> reports = new ArrayList<>(0);
+        List<Thread> holders = new ArrayList<>(0);
+        synchronized (pool) {
+            for (PooledConnection connection : leakWheel.advance()) {
+                connection.leakTimeout = null;
+                long heldMillis = TimeUnit.NANOSECONDS.toMillis(now - connection.borrowTime);
+                Thread holder = connection.holder;
+                String message = "Connection leak detected in " + poolName + ": connection@"
+                        + Integer.toHexString(System.identityHashCode(connection)) + " has been held for " + heldMillis + "ms by " + (holder != null ? holder.getName() : "an async request");
+                Exception report;
+                if (connection.acquiredAt != null) {
+                    report = new Exception(message + ", acquired at:");
+                    report.setStackTrace(connection.acquiredAt.getStackTrace());
+                    holder = null;
+                } else {
+                    report = new Exception(message + (holder != null ? ", current stack of the holder:" : ""));
+                    report.setStackTrace(new StackTraceElement[0]);
+                }
+                reports.add(report);
+                holders.add(holder);
+            }
+        }
+        //获取其他线程的调用栈需要等到safepoint，放在monitor之外
+        for (int i = 0; i < reports.size(); i++) {
+            if (holders.get(i) != null) {
+                reports.get(i).setStackTrace(holders.get(i).getStackTrace());
+            }
+            metrics.leaks.increment();
+            reports.get(i).printStackTrace();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor newDaemonExecutor(String name) {
+        return new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private ObjectName objectName() throws Exception {
+        return new ObjectName("org.concurrency:type=ManagedConnectionPool,name=" + ObjectName.quote(poolName));
+    }
+
+    private void registerMbean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(metrics, objectName());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void unregisterMbean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 经过自适应并发限制放行，未启用时总是放行；被拒绝的请求计入rejections
+     * @return
+     */
+    private boolean admit(int count) {
+        if (limiter == null || limiter.tryAcquire(count)) {
+            return true;
+        }
+        metrics.rejections.increment();
+        return false;
+    }
+
+    /**
+     * 获取分布式许可，未配置时直接返回true；获取不到时计入timeouts，并归还自适应并发限制的permit
+     * @param count
+     * @param millis
+     * @return
+     * @throws InterruptedException
+     */
+    private boolean acquirePermits(int count, long millis) throws InterruptedException {
+        if (permits == null) {
+            return true;
+        }
+        boolean acquired;
+        try {
+            acquired = permits.acquire(count, millis);
+        } catch (InterruptedException e) {
+            if (limiter != null) {
+                limiter.onIgnore(count);
+            }
+            throw e;
+        }
+        if (!acquired) {
+            metrics.timeouts.increment();
+            if (limiter != null) {
+                limiter.onIgnore(count);
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * 请求没有拿到连接就结束了：归还自适应并发限制的permit和分布式许可
+     * @param count
+     * @param dropped 是否超时，超时的请求只算一次drop，其余的permit直接归还
+     */
+    private void releaseAdmission(int count, boolean dropped) {
+        if (limiter != null) {
+            if (dropped) {
+                limiter.onDropped();
+                limiter.onIgnore(count - 1);
+            } else {
+                limiter.onIgnore(count);
+            }
+        }
+        if (permits != null) {
+            permits.release(count);
+        }
+    }
+
+    private boolean isExpired(PooledConnection connection, long now) {
+        long maxLifetime = config.getMaxLifetimeMillis();
+        return maxLifetime > 0 && now - connection.createTime > TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+    }
+
+    private static void closeAll(List<PooledConnection> connections) {
+        if (connections != null) {
+            for (PooledConnection connection : connections) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(PooledConnection connection) {
+        connection.clearStatementCache();
+        try {
+            connection.getDelegate().close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 取消等待，已经攒到的连接交还给其他waiter；如果取消之前waiter已经拿齐了连接，则返回false
+     * @param waiter
+     * @return
+     */
+    private boolean cancel(Waiter waiter) {
+        List<PooledConnection> expired = null;
+        List<Waiter> ready = null;
+        synchronized (pool) {
+            if (!waiters(waiter.priority).remove(waiter)) {
+                return false;
+            }
+            if (waiter.granted > 0) {
+                expired = returnGranted(waiter);
+                ready = drainIdle();
+                if (expired != null) {
+                    fillPool();
+                }
+            }
+            demand[waiter.priority.ordinal()] -= waiter.count;
+        }
+        closeAll(expired);
+        signalAll(ready);
+        return true;
+    }
+
+    /**
+     * 等待中被中断：取消等待，已经拿齐的连接再释放回连接池
+     * @param waiter
+     * @throws InterruptedException
+     */
+    private void abort(Waiter waiter) throws InterruptedException {
+        if (cancel(waiter) || waiter.failure != null) {
+            releaseAdmission(waiter.count, false);
+        } else {
+            recycle(Arrays.asList(waiter.connections), false);
+        }
+        throw new InterruptedException();
+    }
+
+    /**
+     * 每次借出时交给调用方的连接，close()等同于releaseConnection()
+     *
+     * 被包装的PooledConnection在多次借出之间复用，每次借出的BorrowedConnection都是新的，released保证同一次借出只归还一次
+     */
+    static class BorrowedConnection extends DelegatingConnection {
+
+        final PooledConnection pooled;
+        final AtomicBoolean released = new AtomicBoolean();
+
+        BorrowedConnection(PooledConnection pooled) {
+            super(pooled);
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void close() {
+            pooled.pool.releaseConnection(this);
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return released.get() || super.isClosed();
+        }
+    }
+
+    /**
+     * 获取连接的优先级
+     */
+    public enum Priority {
+        /**
+         * 延迟敏感的用户请求
+         */
+        INTERACTIVE,
+        /**
+         * 批处理等后台任务，只在没有INTERACTIVE请求等待时才能拿到释放的连接
+         */
+        BATCH
+    }
+
+    /**
+     * 排队等待连接的线程（thread不为null）或异步请求（future不为null）
+     */
+    static class Waiter {
+        final Thread thread;
+        final CompletableFuture<Connection> future;
+        final Priority priority;
+        /**
+         * 需要的连接数，异步请求总是1
+         */
+        final int count;
+        /**
+         * 开始等待的时间（System.nanoTime()）
+         */
+        final long start;
+        /**
+         * 采样记录的获取连接的调用栈，用于泄漏检测，可以为null
+         */
+        final Throwable acquiredAt;
+        /**
+         * 已经分到的连接及其个数，只在持有pool的monitor时读写；拿齐之后由等待线程在monitor之外读取
+         */
+        final PooledConnection[] connections;
+        int granted;
+        /**
+         * 拿齐count个连接后在持有monitor时置为true，等待线程在monitor之外读取，所以需要volatile
+         */
+        volatile boolean done;
+        /**
+         * 等待失败的原因（连接池关闭、创建连接失败），在done置为true之前写入，没有拿到任何连接
+         */
+        volatile IllegalStateException failure;
+        /**
+         * 异步请求的超时任务
+         */
+        volatile ScheduledFuture<?> timeoutTask;
+
+        Waiter(Thread thread, CompletableFuture<Connection> future, Priority priority, int count, long start,
+               Throwable acquiredAt) {
+            this.thread = thread;
+            this.future = future;
+            this.priority = priority;
+            this.count = count;
+            this.start = start;
+            this.acquiredAt = acquiredAt;
+            this.connections = new PooledConnection[count];
+        }
+    }
+
+}
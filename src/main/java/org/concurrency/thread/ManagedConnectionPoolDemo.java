@@ -0,0 +1,399 @@
+package org.concurrency.thread;
+
+import org.concurrency.util.Histogram;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ManagedConnectionPool示例代码
+ *
+ * 默认运行闭环（closed loop）模式：每个线程等上一次请求结束后才发起下一次请求，连接池饱和时请求发得更慢，排队的时间被掩盖了。
+ * 参数为open时运行开环（open loop）模式：按目标速率为每个请求安排预定的开始时间，延迟从预定时间开始计算，
+ * 即使线程忙不过来导致请求晚发，晚发的这段时间也计入延迟（修正coordinated omission），这才是用户实际感受到的延迟。
+ * 开环模式下分别在关闭和开启自适应并发限制时运行，对比超时、拒绝的次数以及成功请求的延迟分布。
+ * 参数为priority时运行优先级示例：批处理线程持续占用连接，对比按优先级获取前后用户请求的等待时间。
+ * 参数为bulk时运行批量获取示例：每个请求需要同时持有多个连接，对比逐个获取和fetchConnections一次获取。
+ */
+public class ManagedConnectionPoolDemo {
+
+    /**
+     * 初始化连接池，设置连接数为10
+     */
+    static ManagedConnectionPool pool = new ManagedConnectionPool(10);
+    /**
+     * CountDownLatch保证所有的ConnectionRunner线程同时开始
+     */
+    static CountDownLatch start = new CountDownLatch(1);
+    /**
+     * CountDownLatch保证所有的ConnectionRunner线程结束后，main主线程才继续执行
+     */
+    static CountDownLatch end;
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 0 && "open".equals(args[0])) {
+            openLoopSweep();
+        } else if (args.length > 0 && "priority".equals(args[0])) {
+            prioritySweep();
+        } else if (args.length > 0 && "bulk".equals(args[0])) {
+            bulkRun(false);
+            bulkRun(true);
+        } else {
+            closedLoop();
+        }
+    }
+
+    static void closedLoop() throws InterruptedException {
+        int threadCount = 50;
+        end = new CountDownLatch(threadCount);
+        int count = 20;
+        AtomicInteger got = new AtomicInteger();
+        AtomicInteger notGot = new AtomicInteger();
+        AtomicLong threadNum = new AtomicLong();
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread t = new Thread(new ConnectionRunner(count, got, notGot), "ManagedConnectionPool-Thread-" + threadNum.incrementAndGet());
+            t.start();
+        }
+        //所有ConnectionRunner线程同时开始
+        start.countDown();
+        //等待所有ConnectionRunner线程结束
+        end.await();
+
+        System.out.println("Total invoke: " + (threadCount * count));
+        System.out.println("Got connection: " + got);
+        System.out.println("Not Got connection: " + notGot);
+        //等待时间、持有时间的分布以及超时次数
+        System.out.println("Pool metrics: " + pool.getMetrics());
+    }
+
+    static class ConnectionRunner implements Runnable {
+
+        /**
+         * 循环获取次数
+         */
+        int count;
+        /**
+         * 统计获取到连接的次数
+         */
+        AtomicInteger got;
+        /**
+         * 统计未获取到连接的次数
+         */
+        AtomicInteger notGot;
+
+        public ConnectionRunner(int count, AtomicInteger got, AtomicInteger notGot) {
+            this.count = count;
+            this.got = got;
+            this.notGot = notGot;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            while (count > 0) {
+                try {
+                    //尝试获取连接，设置超时时间为1000毫秒
+                    Connection connection = pool.fetchConnection(1000);
+                    if (connection != null) {
+                        //获取到连接后的处理
+                        try {
+                            connection.createStatement();
+                            connection.commit();
+                        } finally {
+                            pool.releaseConnection(connection);
+                            got.incrementAndGet();
+                        }
+                    } else {
+                        //未获取到连接后的处理
+                        notGot.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                } finally {
+                    count--;
+                }
+            }
+            end.countDown();
+        }
+    }
+
+    // ========= 开环模式 =========
+
+    /**
+     * 开环模式下每组参数的运行时间
+     */
+    static final long OPEN_LOOP_SECONDS = 5;
+    /**
+     * 目标速率（请求/秒），每次commit耗时100ms，连接数为10时连接池的处理能力上限约为100请求/秒
+     */
+    static final int OPEN_LOOP_RATE = 150;
+    /**
+     * 开环模式下获取连接的超时时间
+     */
+    static final long OPEN_LOOP_FETCH_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * 在不同的线程数、连接池大小以及是否启用自适应并发限制下运行开环模式，打印延迟分布
+     *
+     * 延迟分布包括成功的请求和超时的请求（按放弃时的延迟计入），被自适应限制立即拒绝的请求不计入分布，只计入failed
+     */
+    static void openLoopSweep() throws InterruptedException {
+        System.out.println("rate=" + OPEN_LOOP_RATE + "/s duration=" + OPEN_LOOP_SECONDS + "s latency in ms");
+        System.out.printf("%8s %8s %8s %8s %8s %8s %8s %8s %8s %8s %8s %8s%n",
+                "threads", "poolSize", "adaptive", "ok", "failed", "timeout", "rejected", "p50", "p90", "p99", "p999", "max");
+        for (boolean adaptive : new boolean[] {false, true}) {
+            for (int poolSize : new int[] {10, 20}) {
+                for (int threadCount : new int[] {20, 50}) {
+                    openLoop(threadCount, poolSize, adaptive, OPEN_LOOP_RATE, OPEN_LOOP_SECONDS);
+                }
+            }
+        }
+    }
+
+    static void openLoop(int threadCount, int poolSize, boolean adaptive, int rate, long seconds) throws InterruptedException {
+        PoolConfig config = new PoolConfig(poolSize, poolSize);
+        config.setAdaptiveConcurrencyLimit(adaptive);
+        ManagedConnectionPool openLoopPool = new ManagedConnectionPool(config);
+        long totalRequests = rate * seconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        //所有请求的预定开始时间以startTime为基准，第i个请求预定在startTime + i * intervalNanos开始
+        long startTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        AtomicLong sequence = new AtomicLong();
+        Histogram latency = new Histogram();
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; i++) {
+            Thread t = new Thread(new OpenLoopRunner(openLoopPool, totalRequests, startTime, intervalNanos,
+                    sequence, latency, failures, done), "OpenLoop-Thread-" + i);
+            t.start();
+        }
+        done.await();
+        openLoopPool.shutdown();
+
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        ConnectionPoolMetrics metrics = openLoopPool.getMetrics();
+        System.out.printf("%8d %8d %8b %8d %8d %8d %8d %8d %8d %8d %8d %8d%n", threadCount, poolSize, adaptive,
+                totalRequests - failures.get(), failures.get(), metrics.getTimeoutCount(), metrics.getRejectedCount(),
+                latency.getValueAtPercentile(50) / ms, latency.getValueAtPercentile(90) / ms,
+                latency.getValueAtPercentile(99) / ms, latency.getValueAtPercentile(99.9) / ms,
+                latency.getMax() / ms);
+    }
+
+    static class OpenLoopRunner implements Runnable {
+
+        final ManagedConnectionPool pool;
+        final long totalRequests;
+        final long startTime;
+        final long intervalNanos;
+        /**
+         * 下一个请求的序号，所有线程共享
+         */
+        final AtomicLong sequence;
+        /**
+         * 从预定开始时间到请求结束的延迟（纳秒），超时的请求按放弃时的延迟计入，被拒绝的请求不计入
+         */
+        final Histogram latency;
+        /**
+         * 没有拿到连接的请求数，包括超时和被拒绝的请求
+         */
+        final AtomicInteger failures;
+        final CountDownLatch done;
+
+        OpenLoopRunner(ManagedConnectionPool pool, long totalRequests, long startTime, long intervalNanos,
+                       AtomicLong sequence, Histogram latency, AtomicInteger failures, CountDownLatch done) {
+            this.pool = pool;
+            this.totalRequests = totalRequests;
+            this.startTime = startTime;
+            this.intervalNanos = intervalNanos;
+            this.sequence = sequence;
+            this.latency = latency;
+            this.failures = failures;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long i;
+                while ((i = sequence.getAndIncrement()) < totalRequests) {
+                    long intended = startTime + i * intervalNanos;
+                    //还没到预定时间则等待；已经过了预定时间（线程忙不过来）则立即发起，晚发的时间计入延迟
+                    long wait;
+                    while ((wait = intended - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    long fetchStart = System.nanoTime();
+                    Connection connection = pool.fetchConnection(OPEN_LOOP_FETCH_TIMEOUT_MILLIS);
+                    if (connection == null) {
+                        failures.incrementAndGet();
+                        //等满了超时时间才放弃的请求也要计入延迟分布，否则超时越多尾延迟反而越好看；立即被拒绝的请求只计入失败数
+                        long now = System.nanoTime();
+                        if (now - fetchStart >= TimeUnit.MILLISECONDS.toNanos(OPEN_LOOP_FETCH_TIMEOUT_MILLIS)) {
+                            latency.record(now - intended);
+                        }
+                        continue;
+                    }
+                    try {
+                        connection.createStatement();
+                        connection.commit();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    } finally {
+                        pool.releaseConnection(connection);
+                    }
+                    latency.record(System.nanoTime() - intended);
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    // ========= 优先级 =========
+
+    /**
+     * 连接池大小为10，30个批处理线程不停地获取连接，同时5个用户线程每隔100~300ms（随机）获取一次连接，
+     * 分别在所有请求同一优先级、按优先级获取、按优先级获取并保留3个连接这三种情况下，打印两类请求的等待时间（毫秒）
+     */
+    static void prioritySweep() throws InterruptedException {
+        System.out.printf("%-22s %10s %10s %10s %10s %10s%n", "mode", "user p50", "user p99", "user max", "batch p50", "batch p99");
+        priorityRun("same priority", false, 0);
+        priorityRun("priority", true, 0);
+        priorityRun("priority + reserved 3", true, 3);
+    }
+
+    static void priorityRun(String mode, boolean usePriority, int reserved) throws InterruptedException {
+        PoolConfig config = new PoolConfig(10, 10);
+        config.setReservedConnections(reserved);
+        ManagedConnectionPool priorityPool = new ManagedConnectionPool(config);
+        Histogram userWait = new Histogram();
+        Histogram batchWait = new Histogram();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        ManagedConnectionPool.Priority batchPriority = usePriority ? ManagedConnectionPool.Priority.BATCH : ManagedConnectionPool.Priority.INTERACTIVE;
+        CountDownLatch done = new CountDownLatch(35);
+        for (int i = 0; i < 35; i++) {
+            boolean user = i < 5;
+            Thread t = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        if (user) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextInt(100, 300)));
+                        }
+                        long start = System.nanoTime();
+                        Connection connection = priorityPool.fetchConnection(5000,
+                                user ? ManagedConnectionPool.Priority.INTERACTIVE : batchPriority);
+                        if (connection == null) {
+                            continue;
+                        }
+                        (user ? userWait : batchWait).record(System.nanoTime() - start);
+                        try {
+                            connection.commit();
+                        } catch (SQLException e) {
+                            e.printStackTrace();
+                        } finally {
+                            priorityPool.releaseConnection(connection);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }, (user ? "User-Thread-" : "Batch-Thread-") + i);
+            t.start();
+        }
+        done.await();
+        priorityPool.shutdown();
+
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        System.out.printf("%-22s %10d %10d %10d %10d %10d%n", mode,
+                userWait.getValueAtPercentile(50) / ms, userWait.getValueAtPercentile(99) / ms, userWait.getMax() / ms,
+                batchWait.getValueAtPercentile(50) / ms, batchWait.getValueAtPercentile(99) / ms);
+    }
+
+    // ========= 批量获取 =========
+
+    /**
+     * 连接池大小为10，20个线程各执行20次请求，每次请求需要同时持有4个连接（比如把一个查询拆到4个分片上并行执行）
+     *
+     * 逐个调用fetchConnection时，多个线程各拿到一部分连接后互相等待，只能等到超时放弃已拿到的连接；
+     * fetchConnections(4, ...)要么一次拿齐，要么一个也不拿，不会出现这种情况
+     * @param bulk
+     */
+    static void bulkRun(boolean bulk) throws InterruptedException {
+        ManagedConnectionPool bulkPool = new ManagedConnectionPool(new PoolConfig(10, 10));
+        int threadCount = 20;
+        int count = 20;
+        int fanOut = 4;
+        AtomicInteger got = new AtomicInteger();
+        AtomicInteger notGot = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threadCount);
+        long begin = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j = 0; j < count; j++) {
+                        List<Connection> connections = bulk ? bulkPool.fetchConnections(fanOut, 1000) : fetchOneByOne(bulkPool, fanOut, 1000);
+                        if (connections == null) {
+                            notGot.incrementAndGet();
+                            continue;
+                        }
+                        try {
+                            //各个分片并行执行，耗时约为一次commit
+                            connections.get(0).commit();
+                        } catch (SQLException e) {
+                            e.printStackTrace();
+                        } finally {
+                            bulkPool.releaseConnections(connections);
+                        }
+                        got.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }, "Bulk-Thread-" + i);
+            t.start();
+        }
+        done.await();
+        bulkPool.shutdown();
+        System.out.println((bulk ? "fetchConnections" : "fetchConnection one by one") + ": got=" + got + " notGot=" + notGot
+                + " elapsed=" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) + "ms");
+    }
+
+    /**
+     * 逐个获取n个连接，某一个超时则释放已经拿到的连接并返回null
+     */
+    static List<Connection> fetchOneByOne(ManagedConnectionPool pool, int n, long millis) throws InterruptedException {
+        List<Connection> connections = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Connection connection = pool.fetchConnection(millis);
+            if (connection == null) {
+                pool.releaseConnections(connections);
+                return null;
+            }
+            connections.add(connection);
+        }
+        return connections;
+    }
+
+}
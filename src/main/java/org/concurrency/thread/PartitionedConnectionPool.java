@@ -0,0 +1,382 @@
+package org.concurrency.thread;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 分区连接池：把连接分到N个子池中，减少所有线程竞争同一个队头带来的缓存行争用
+ *
+ * 1. 每个线程按线程id映射到一个固定的「本地分区」，获取连接时先从本地分区的队头取
+ * 2. 本地分区为空时，依次从相邻分区的队尾「窃取」连接（队头留给该分区自己的线程）
+ * 3. 所有分区都为空时才进入FIFO等待队列并park，归还的连接直接交给等待最久的线程，并且只unpark这一个线程
+ *
+ * 等待线程先入队再扫描一遍分区，归还线程先把连接放回分区再检查等待队列，两边至少有一方能看到对方，
+ * 不会出现连接留在分区里、等待线程却一直park到超时的情况。
+ *
+ * 连接归还时回到它所属的分区，API和超时语义与ConnectionPool.fetchConnection保持一致；
+ * 每次借出都返回一个新的PartitionedConnection，同一次借出只有第一次close()/releaseConnection()有效，
+ * 线程A归还后又误调用一次close()时，不会把已经被线程B借走的连接归还掉
+ */
+public class PartitionedConnectionPool {
+
+    private final Partition[] partitions;
+    /**
+     * 所有分区都为空时等待连接的线程，按到达顺序排队
+     */
+    private final ConcurrentLinkedQueue<Waiter> waitQueue = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * 分区数默认为CPU核数（不超过连接数）
+     * @param initSize
+     */
+    public PartitionedConnectionPool(int initSize) {
+        this(initSize, ConnectionDriver::createConnection);
+    }
+
+    public PartitionedConnectionPool(int initSize, Callable<Connection> connectionFactory) {
+        this(initSize, Math.max(1, Math.min(initSize, Runtime.getRuntime().availableProcessors())), connectionFactory);
+    }
+
+    public PartitionedConnectionPool(int initSize, int partitionCount) {
+        this(initSize, partitionCount, ConnectionDriver::createConnection);
+    }
+
+    /**
+     * 构造函数 初始化连接池，连接按轮询的方式分到各个分区
+     * @param initSize
+     * @param partitionCount
+     * @param connectionFactory 创建真实连接，与PoolConfig.setConnectionFactory相同
+     */
+    public PartitionedConnectionPool(int initSize, int partitionCount, Callable<Connection> connectionFactory) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partitionCount must be at least 1");
+        }
+        partitions = new Partition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Partition(i);
+        }
+        for (int i = 0; i < initSize; i++) {
+            Partition partition = partitions[i % partitionCount];
+            Connection connection;
+            try {
+                connection = connectionFactory.call();
+            } catch (Exception e) {
+                shutdown();
+                throw new IllegalStateException("failed to create connection", e);
+            }
+            partition.idle.addFirst(new PartitionEntry(connection, partition));
+        }
+    }
+
+    /**
+     * 在millis内如果未获取到连接，则返回null；millis小于等于0时一直等待
+     * @param millis
+     * @return
+     * @throws InterruptedException
+     * @throws IllegalStateException 连接池已关闭
+     */
+    public Connection fetchConnection(long millis) throws InterruptedException {
+        checkOpen();
+        int home = homeIndex();
+        PartitionEntry entry = poll(home);
+        if (entry != null) {
+            return new PartitionedConnection(entry);
+        }
+
+        //先入队再扫描一遍，与归还线程「先放回分区再检查等待队列」配对
+        Waiter waiter = new Waiter(Thread.currentThread());
+        waitQueue.add(waiter);
+        entry = poll(home);
+        if (entry != null) {
+            if (waiter.cancel()) {
+                waitQueue.remove(waiter);
+                return new PartitionedConnection(entry);
+            }
+            //入队后已经被移交了一个连接，扫描到的这个放回去
+            release(entry);
+            return granted(waiter);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (true) {
+            if (closed || waiter.isGranted()) {
+                return granted(waiter);
+            }
+            if (millis > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (waiter.cancel()) {
+                        waitQueue.remove(waiter);
+                        return null;
+                    }
+                    return granted(waiter);
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                if (waiter.cancel()) {
+                    waitQueue.remove(waiter);
+                    throw new InterruptedException();
+                }
+                //已经拿到连接，保留中断状态交给调用方处理
+                Thread.currentThread().interrupt();
+                return granted(waiter);
+            }
+        }
+    }
+
+    /**
+     * 释放连接，只接受从本连接池获取的连接，同一次借出的连接重复释放被忽略；连接池关闭后释放的连接直接关闭
+     * @param connection
+     */
+    public void releaseConnection(Connection connection) {
+        if (!(connection instanceof PartitionedConnection) || ((PartitionedConnection) connection).pool != this) {
+            return;
+        }
+        PartitionedConnection partitioned = (PartitionedConnection) connection;
+        if (partitioned.released.compareAndSet(false, true)) {
+            release(partitioned.entry);
+        }
+    }
+
+    /**
+     * 关闭连接池：关闭所有空闲连接，借出的连接在归还时关闭；之后获取连接（包括正在等待的线程）抛出IllegalStateException
+     */
+    public void shutdown() {
+        closed = true;
+        for (Partition partition : partitions) {
+            if (partition == null) {
+                continue;
+            }
+            PartitionEntry entry;
+            while ((entry = partition.idle.pollFirst()) != null) {
+                closeQuietly(entry);
+            }
+        }
+        for (Waiter waiter : waitQueue) {
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    public int getIdleConnections() {
+        int idle = 0;
+        for (Partition partition : partitions) {
+            idle += partition.idle.size();
+        }
+        return idle;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("pool is shut down");
+        }
+    }
+
+    private static void closeQuietly(PartitionEntry entry) {
+        try {
+            entry.rawConnection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 等待结束（被移交了连接或者连接池已关闭）后取走结果；连接池已关闭时，已经移交过来的连接直接关闭
+     * @param waiter
+     * @return
+     */
+    private Connection granted(Waiter waiter) {
+        if (closed) {
+            if (waiter.cancel()) {
+                waitQueue.remove(waiter);
+            } else {
+                release(waiter.entry);
+            }
+            throw new IllegalStateException("pool is shut down");
+        }
+        return new PartitionedConnection(waiter.entry);
+    }
+
+    /**
+     * 归还连接：优先移交给等待最久的线程，没有等待线程时放回所属分区的队头
+     * @param entry
+     */
+    private void release(PartitionEntry entry) {
+        if (closed) {
+            closeQuietly(entry);
+            return;
+        }
+        if (handOff(entry)) {
+            return;
+        }
+        entry.partition.idle.addFirst(entry);
+        //与shutdown()并发时，shutdown()可能已经清空过这个分区
+        if (closed) {
+            if (entry.partition.idle.remove(entry)) {
+                closeQuietly(entry);
+            }
+            return;
+        }
+        //放回分区之后才入队的等待线程可能已经扫描过分区，再检查一次等待队列
+        while (!waitQueue.isEmpty()) {
+            PartitionEntry idle = poll(entry.partition.index);
+            if (idle == null) {
+                return;
+            }
+            if (!handOff(idle)) {
+                idle.partition.idle.addFirst(idle);
+            }
+        }
+    }
+
+    /**
+     * 把连接交给等待最久、还没有放弃等待的线程
+     * @param entry
+     * @return 没有等待线程时返回false
+     */
+    private boolean handOff(PartitionEntry entry) {
+        Waiter waiter;
+        while ((waiter = waitQueue.poll()) != null) {
+            if (waiter.grant(entry)) {
+                LockSupport.unpark(waiter.thread);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 先取本地分区的队头，再从相邻分区的队尾窃取
+     * @param home
+     * @return
+     */
+    private PartitionEntry poll(int home) {
+        PartitionEntry entry = partitions[home].idle.pollFirst();
+        if (entry != null) {
+            return entry;
+        }
+        for (int i = 1; i < partitions.length; i++) {
+            entry = partitions[(home + i) % partitions.length].idle.pollLast();
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 当前线程的本地分区，线程id经过混淆后取模，避免连续创建的线程集中在相邻的几个分区
+     * @return
+     */
+    private int homeIndex() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (h >>> 1) % partitions.length;
+    }
+
+    /**
+     * 一个分区：本地线程在队头取/还连接，其他分区的线程从队尾窃取
+     */
+    static class Partition {
+        final int index;
+        final ConcurrentLinkedDeque<PartitionEntry> idle = new ConcurrentLinkedDeque<>();
+
+        Partition(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * 连接池中的一个连接，记录了所属的分区
+     */
+    class PartitionEntry {
+        final PartitionedConnectionPool pool = PartitionedConnectionPool.this;
+        final Connection rawConnection;
+        final Partition partition;
+
+        PartitionEntry(Connection rawConnection, Partition partition) {
+            this.rawConnection = rawConnection;
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * 等待连接的线程，归还线程通过CAS把状态从WAITING改为GRANTED后交出连接，等待线程超时/被中断/连接池关闭时CAS为CANCELLED，
+     * 两者只有一方能成功，连接不会交给已经放弃等待的线程
+     */
+    static class Waiter {
+        static final int WAITING = 0;
+        static final int GRANTED = 1;
+        static final int CANCELLED = 2;
+
+        final Thread thread;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        /**
+         * 移交过来的连接，在state改为GRANTED之前写入，state的CAS保证等待线程能看到
+         */
+        PartitionEntry entry;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+
+        boolean grant(PartitionEntry entry) {
+            if (state.get() != WAITING) {
+                return false;
+            }
+            this.entry = entry;
+            return state.compareAndSet(WAITING, GRANTED);
+        }
+
+        boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        boolean isGranted() {
+            return state.get() == GRANTED;
+        }
+    }
+
+    /**
+     * 每次借出时交给调用方的连接，close()等同于releaseConnection()
+     */
+    static class PartitionedConnection extends DelegatingConnection {
+
+        final PartitionedConnectionPool pool;
+        final PartitionEntry entry;
+        /**
+         * 这次借出是否已经归还，保证同一次借出只归还一次
+         */
+        final AtomicBoolean released = new AtomicBoolean();
+
+        PartitionedConnection(PartitionEntry entry) {
+            super(entry.rawConnection);
+            this.pool = entry.pool;
+            this.entry = entry;
+        }
+
+        @Override
+        public void close() {
+            pool.releaseConnection(this);
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return released.get() || super.isClosed();
+        }
+    }
+}
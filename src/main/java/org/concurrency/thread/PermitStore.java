@@ -0,0 +1,34 @@
+package org.concurrency.thread;
+
+/**
+ * 全局许可的存储，所有节点共享同一个许可总数（比如所有应用节点同时使用的数据库连接数上限）
+ *
+ * 每个节点按节点id租用许可，租约有有效期，节点需要定期续约；节点崩溃后租约过期，它租用的许可自动回到全局
+ *
+ * 实现：RedisPermitStore（生产环境，多个节点共享一个Redis），LocalPermitStore（单进程内的替身，用于测试和示例）
+ */
+public interface PermitStore {
+
+    /**
+     * 为node租用最多permits个许可，同时刷新node的租约有效期
+     * @param node
+     * @param permits 大于0
+     * @return 实际租到的许可数，全局许可不够时可能少于permits
+     */
+    int lease(String node, int permits);
+
+    /**
+     * 刷新node的租约有效期
+     * @param node
+     * @return node的租约是否还在；返回false说明租约已经过期（比如续约时遇到长时间的GC停顿或者存储不可用），
+     * node之前租用的许可已经回到全局，可能已经被其他节点租走
+     */
+    boolean renew(String node);
+
+    /**
+     * 归还node租用的许可，超过node当前租用数的部分被忽略
+     * @param node
+     * @param permits
+     */
+    void release(String node, int permits);
+}
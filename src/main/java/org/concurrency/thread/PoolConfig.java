@@ -0,0 +1,228 @@
+package org.concurrency.thread;
+
+import java.sql.Connection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ManagedConnectionPool的配置项
+ *
+ * 超时类的配置小于等于0表示不启用
+ */
+public class PoolConfig {
+
+    /**
+     * 连接池名称，用作JMX的ObjectName，为null时自动生成
+     */
+    private String poolName;
+    /**
+     * 是否把连接池指标注册为MBean
+     */
+    private boolean registerMbeans = false;
+
+    /**
+     * 创建连接的方式，默认使用ConnectionDriver的动态代理连接，
+     * 也可以换成ConnectionDriver.createConnection(DriverConfig)模拟真实的耗时和故障
+     */
+    private Callable<Connection> connectionFactory = ConnectionDriver::createConnection;
+
+    /**
+     * 连接池至少保持的连接数，由后台线程补足
+     */
+    private int minIdle = 0;
+    /**
+     * 连接池最多创建的连接数
+     */
+    private int maxPoolSize = 10;
+    /**
+     * 空闲超过该时间的连接会被回收（总连接数不会低于minIdle）
+     */
+    private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    /**
+     * 连接的最长存活时间，超过后空闲时被回收，使用中的连接在归还时回收
+     */
+    private long maxLifetimeMillis = TimeUnit.MINUTES.toMillis(30);
+    /**
+     * 每个连接缓存的PreparedStatement数，0表示不缓存
+     */
+    private int statementCacheSize = 0;
+    /**
+     * 后台线程巡检的间隔
+     */
+    private long housekeepingPeriodMillis = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * 是否启用自适应并发限制：根据获取+持有连接的耗时估算可以承受的并发数，超出的请求立即返回null而不是排队等到超时
+     */
+    private boolean adaptiveConcurrencyLimit = false;
+    /**
+     * 为INTERACTIVE请求保留的连接数，BATCH请求同时最多借出maxPoolSize - reservedConnections个连接
+     */
+    private int reservedConnections = 0;
+    /**
+     * 连接借出超过该时间仍未归还时报告为疑似泄漏，0表示不检测
+     */
+    private long leakDetectionThresholdMillis = 0;
+    /**
+     * 开启泄漏检测时，按该比例在获取连接时记录调用栈（记录调用栈开销较大）；
+     * 没有记录的连接在疑似泄漏时打印持有线程当前的调用栈
+     */
+    private double leakDetectionSampleRate = 0.01;
+    /**
+     * 空闲超过该时间的连接在借出前先调用isValid验证，刚归还不久的连接直接复用，0表示不验证
+     */
+    private long validationIdleMillis = 0;
+    /**
+     * 多个节点共享的分布式许可，获取连接前先获取许可，所有节点同时借出的连接数不超过全局许可总数；
+     * 可以被多个连接池共享，由调用方负责shutdown，null表示不限制
+     */
+    private DistributedPermits distributedPermits;
+
+    public PoolConfig() {
+    }
+
+    public PoolConfig(int minIdle, int maxPoolSize) {
+        this.minIdle = minIdle;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public boolean isRegisterMbeans() {
+        return registerMbeans;
+    }
+
+    public void setRegisterMbeans(boolean registerMbeans) {
+        this.registerMbeans = registerMbeans;
+    }
+
+    public Callable<Connection> getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public void setConnectionFactory(Callable<Connection> connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getMaxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+        this.maxLifetimeMillis = maxLifetimeMillis;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public long getHousekeepingPeriodMillis() {
+        return housekeepingPeriodMillis;
+    }
+
+    public void setHousekeepingPeriodMillis(long housekeepingPeriodMillis) {
+        this.housekeepingPeriodMillis = housekeepingPeriodMillis;
+    }
+
+    public boolean isAdaptiveConcurrencyLimit() {
+        return adaptiveConcurrencyLimit;
+    }
+
+    public void setAdaptiveConcurrencyLimit(boolean adaptiveConcurrencyLimit) {
+        this.adaptiveConcurrencyLimit = adaptiveConcurrencyLimit;
+    }
+
+    public int getReservedConnections() {
+        return reservedConnections;
+    }
+
+    public void setReservedConnections(int reservedConnections) {
+        this.reservedConnections = reservedConnections;
+    }
+
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    public double getLeakDetectionSampleRate() {
+        return leakDetectionSampleRate;
+    }
+
+    public void setLeakDetectionSampleRate(double leakDetectionSampleRate) {
+        this.leakDetectionSampleRate = leakDetectionSampleRate;
+    }
+
+    public long getValidationIdleMillis() {
+        return validationIdleMillis;
+    }
+
+    public void setValidationIdleMillis(long validationIdleMillis) {
+        this.validationIdleMillis = validationIdleMillis;
+    }
+
+    public DistributedPermits getDistributedPermits() {
+        return distributedPermits;
+    }
+
+    public void setDistributedPermits(DistributedPermits distributedPermits) {
+        this.distributedPermits = distributedPermits;
+    }
+
+    /**
+     * 校验配置，不合法时抛出IllegalArgumentException
+     */
+    void validate() {
+        if (maxPoolSize < 1) {
+            throw new IllegalArgumentException("maxPoolSize must be at least 1");
+        }
+        if (minIdle < 0 || minIdle > maxPoolSize) {
+            throw new IllegalArgumentException("minIdle must be between 0 and maxPoolSize");
+        }
+        if (reservedConnections < 0 || reservedConnections >= maxPoolSize) {
+            throw new IllegalArgumentException("reservedConnections must be between 0 and maxPoolSize - 1");
+        }
+        if (leakDetectionSampleRate < 0 || leakDetectionSampleRate > 1) {
+            throw new IllegalArgumentException("leakDetectionSampleRate must be between 0 and 1");
+        }
+        if (housekeepingPeriodMillis <= 0) {
+            throw new IllegalArgumentException("housekeepingPeriodMillis must be positive");
+        }
+    }
+}
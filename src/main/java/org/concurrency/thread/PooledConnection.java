@@ -0,0 +1,133 @@
+package org.concurrency.thread;
+
+import org.concurrency.util.TimerWheel;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * ManagedConnectionPool中的一个连接，每次借出时包装成新的BorrowedConnection交给调用方
+ *
+ * 记录连接的创建时间和最近一次归还时间，供后台线程判断是否空闲超时或超过最长存活时间
+ *
+ * 配置了statementCacheSize时，prepareStatement/prepareCall会优先复用该连接上缓存的Statement
+ */
+public class PooledConnection extends DelegatingConnection {
+
+    final ManagedConnectionPool pool;
+    /**
+     * 创建时间（System.nanoTime()）
+     */
+    final long createTime;
+    /**
+     * 最近一次归还时间（System.nanoTime()），只在持有pool的monitor时读写
+     */
+    long lastAccessTime;
+    /**
+     * 最近一次借出时间（System.nanoTime()），在持有pool的monitor时写入，归还时用于计算持有时间
+     */
+    long borrowTime;
+    /**
+     * 借出者开始获取连接的时间（System.nanoTime()），归还时用于计算请求的总耗时（等待 + 持有）
+     */
+    long requestTime;
+    /**
+     * 借出者的优先级，只在持有pool的monitor时读写
+     */
+    ManagedConnectionPool.Priority priority;
+    /**
+     * 借出时空闲时间超过validationIdleMillis，需要由获取连接的线程先验证，只在持有pool的monitor时写入
+     */
+    boolean needsValidation;
+    /**
+     * 验证失败，归还时关闭而不是放回连接池；由获取连接的线程在monitor之外写入，之后归还时在monitor内读取
+     */
+    boolean broken;
+    /**
+     * 泄漏检测：借出连接的线程、采样记录的获取连接的调用栈以及时间轮中的任务，只在持有pool的monitor时读写
+     */
+    Thread holder;
+    Throwable acquiredAt;
+    TimerWheel.Timeout<PooledConnection> leakTimeout;
+    /**
+     * 是否已借出，只在持有pool的monitor时读写，用于忽略连接池内部重复的归还
+     */
+    boolean inUse;
+    /**
+     * 最近一次借出时交给调用方的连接，Statement.getConnection()返回的是这个PooledConnection，close()时归还的是这次借出
+     */
+    volatile ManagedConnectionPool.BorrowedConnection borrowed;
+    /**
+     * 为null表示不缓存Statement
+     */
+    private final StatementCache statementCache;
+
+    PooledConnection(Connection delegate, ManagedConnectionPool pool, int statementCacheSize) {
+        super(delegate);
+        this.pool = pool;
+        this.createTime = System.nanoTime();
+        this.lastAccessTime = createTime;
+        this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize, this, pool.getMetrics()) : null;
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        if (statementCache == null) {
+            return delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+        StatementCache.Key key = new StatementCache.Key(sql, false, resultSetType, resultSetConcurrency);
+        PreparedStatement statement = statementCache.checkout(key);
+        if (statement != null) {
+            return statement;
+        }
+        statement = delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        return statement == null ? null : statementCache.add(key, statement);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return prepareCall(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        if (statementCache == null) {
+            return delegate.prepareCall(sql, resultSetType, resultSetConcurrency);
+        }
+        StatementCache.Key key = new StatementCache.Key(sql, true, resultSetType, resultSetConcurrency);
+        PreparedStatement statement = statementCache.checkout(key);
+        if (statement != null) {
+            return (CallableStatement) statement;
+        }
+        statement = delegate.prepareCall(sql, resultSetType, resultSetConcurrency);
+        return statement == null ? null : (CallableStatement) statementCache.add(key, statement);
+    }
+
+    /**
+     * 连接被连接池回收时清空Statement缓存
+     */
+    void clearStatementCache() {
+        if (statementCache != null) {
+            statementCache.clear();
+        }
+    }
+
+    /**
+     * 通过Statement.getConnection()拿到的连接关闭时，归还当前这次借出
+     */
+    @Override
+    public void close() {
+        ManagedConnectionPool.BorrowedConnection current = borrowed;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
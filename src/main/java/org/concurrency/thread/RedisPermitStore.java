@@ -0,0 +1,136 @@
+package org.concurrency.thread;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于Redis的PermitStore，多个节点共享同一组key
+ *
+ * 数据结构：
+ * 1. {key}:leases 哈希表，field为节点id，value为该节点租用的许可数
+ * 2. {key}:expiry 有序集合，member为节点id，score为租约到期时间（毫秒）
+ *
+ * 两个key带有相同的hash tag（{key}），在Redis Cluster中落在同一个slot，可以在一段脚本中同时访问。
+ * 租用和归还都是一段Lua脚本，先清理租约已过期的节点，再计算剩余许可并更新，整个过程在Redis中原子执行，每次调用只有一次网络往返。
+ * 到期时间使用客户端的时钟，各节点之间的时钟偏差需要远小于租约有效期。
+ *
+ * 注意：这里的Lua脚本还没有在真实的Redis上执行过（DistributedPermitsDemo使用的是LocalPermitStore），使用前需要先在Redis上验证
+ */
+public class RedisPermitStore implements PermitStore {
+
+    /**
+     * KEYS[1] = leases, KEYS[2] = expiry
+     * ARGV[1] = node, ARGV[2] = 许可数的变化（负数表示归还）, ARGV[3] = 全局许可总数, ARGV[4] = 当前时间, ARGV[5] = 租约有效期
+     * 返回实际的变化量
+     */
+    private static final String SCRIPT =
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[4])\n"
+            + "for _, n in ipairs(expired) do\n"
+            + "  redis.call('HDEL', KEYS[1], n)\n"
+            + "  redis.call('ZREM', KEYS[2], n)\n"
+            + "end\n"
+            + "local used = 0\n"
+            + "for _, v in ipairs(redis.call('HVALS', KEYS[1])) do used = used + tonumber(v) end\n"
+            + "local mine = tonumber(redis.call('HGET', KEYS[1], ARGV[1]) or '0')\n"
+            + "local delta = tonumber(ARGV[2])\n"
+            + "if delta >= 0 then\n"
+            + "  delta = math.max(0, math.min(delta, tonumber(ARGV[3]) - used))\n"
+            + "else\n"
+            + "  delta = math.max(delta, -mine)\n"
+            + "end\n"
+            + "mine = mine + delta\n"
+            + "if mine > 0 then\n"
+            + "  redis.call('HSET', KEYS[1], ARGV[1], mine)\n"
+            + "  redis.call('ZADD', KEYS[2], tonumber(ARGV[4]) + tonumber(ARGV[5]), ARGV[1])\n"
+            + "else\n"
+            + "  redis.call('HDEL', KEYS[1], ARGV[1])\n"
+            + "  redis.call('ZREM', KEYS[2], ARGV[1])\n"
+            + "end\n"
+            + "return delta";
+
+    /**
+     * KEYS[1] = leases, KEYS[2] = expiry
+     * ARGV[1] = node, ARGV[2] = 当前时间, ARGV[3] = 租约有效期
+     * 先清理租约已过期的节点，node的租约还在时刷新到期时间并返回1，否则返回0
+     */
+    private static final String RENEW_SCRIPT =
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[2])\n"
+            + "for _, n in ipairs(expired) do\n"
+            + "  redis.call('HDEL', KEYS[1], n)\n"
+            + "  redis.call('ZREM', KEYS[2], n)\n"
+            + "end\n"
+            + "if redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0 then\n"
+            + "  return 0\n"
+            + "end\n"
+            + "redis.call('ZADD', KEYS[2], tonumber(ARGV[2]) + tonumber(ARGV[3]), ARGV[1])\n"
+            + "return 1";
+
+    private final JedisPool jedisPool;
+    private final List<String> keys;
+    private final int budget;
+    private final long leaseTtlMillis;
+    /**
+     * 脚本的SHA1，Redis重启后脚本缓存丢失时重新加载
+     */
+    private volatile String sha;
+    private volatile String renewSha;
+
+    /**
+     * @param jedisPool
+     * @param key 同一个全局许可的所有节点使用相同的key
+     * @param budget 全局许可总数
+     * @param leaseTtlMillis 租约有效期，应当是节点续约间隔的数倍
+     */
+    public RedisPermitStore(JedisPool jedisPool, String key, int budget, long leaseTtlMillis) {
+        this.jedisPool = jedisPool;
+        this.keys = Arrays.asList("{" + key + "}:leases", "{" + key + "}:expiry");
+        this.budget = budget;
+        this.leaseTtlMillis = leaseTtlMillis;
+    }
+
+    @Override
+    public int lease(String node, int permits) {
+        return (int) adjust(node, permits);
+    }
+
+    @Override
+    public void release(String node, int permits) {
+        adjust(node, -permits);
+    }
+
+    @Override
+    public boolean renew(String node) {
+        List<String> args = Arrays.asList(node, String.valueOf(System.currentTimeMillis()), String.valueOf(leaseTtlMillis));
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (renewSha == null) {
+                renewSha = jedis.scriptLoad(RENEW_SCRIPT);
+            }
+            try {
+                return (Long) jedis.evalsha(renewSha, keys, args) == 1;
+            } catch (JedisNoScriptException e) {
+                renewSha = jedis.scriptLoad(RENEW_SCRIPT);
+                return (Long) jedis.evalsha(renewSha, keys, args) == 1;
+            }
+        }
+    }
+
+    private long adjust(String node, int delta) {
+        List<String> args = Arrays.asList(node, String.valueOf(delta), String.valueOf(budget),
+                String.valueOf(System.currentTimeMillis()), String.valueOf(leaseTtlMillis));
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (sha == null) {
+                sha = jedis.scriptLoad(SCRIPT);
+            }
+            try {
+                return (Long) jedis.evalsha(sha, keys, args);
+            } catch (JedisNoScriptException e) {
+                sha = jedis.scriptLoad(SCRIPT);
+                return (Long) jedis.evalsha(sha, keys, args);
+            }
+        }
+    }
+}
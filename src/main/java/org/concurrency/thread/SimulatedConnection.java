@@ -0,0 +1,511 @@
+package org.concurrency.thread;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 直接实现Connection接口的模拟连接
+ *
+ * 与ConnectionDriver的动态代理不同，方法调用不经过反射，适合做微基准测试；
+ * 每次操作按DriverConfig中对应分类的耗时分布休眠，并按配置的概率抛出SQLException或者断开连接。
+ * 创建Statement的方法返回一个动态代理的Statement，execute*方法和连接上的操作一样按EXECUTE分类休眠并注入故障，
+ * 除了close()/isClosed()之外的方法都返回默认值。
+ */
+public class SimulatedConnection implements Connection {
+
+    private static final DriverConfig.Operation[] OPERATIONS = DriverConfig.Operation.values();
+
+    /**
+     * 创建连接时从DriverConfig复制的耗时分布，按Operation.ordinal()索引
+     */
+    private final LatencyModel[] latencies = new LatencyModel[OPERATIONS.length];
+    private final double failureRate;
+    private final double brokenRate;
+    private final GroupCommitter groupCommitter;
+
+    private volatile boolean closed;
+    private volatile boolean broken;
+    private volatile boolean autoCommit = true;
+    private volatile boolean readOnly;
+    private volatile int transactionIsolation = TRANSACTION_READ_COMMITTED;
+    private volatile String catalog;
+    private volatile String schema;
+    private volatile int networkTimeout;
+
+    SimulatedConnection(DriverConfig config) {
+        for (DriverConfig.Operation operation : OPERATIONS) {
+            latencies[operation.ordinal()] = config.getLatency(operation);
+        }
+        this.failureRate = config.getFailureRate();
+        this.brokenRate = config.getBrokenRate();
+        this.groupCommitter = config.getGroupCommitter();
+    }
+
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * 模拟一次操作：检查连接状态，休眠，然后按概率注入故障
+     * @param operation
+     * @throws SQLException
+     */
+    private void simulate(DriverConfig.Operation operation) throws SQLException {
+        checkOpen();
+        pause(latencies[operation.ordinal()].nextNanos());
+        injectFault();
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection is closed", "08003");
+        }
+        if (broken) {
+            throw new SQLException("connection is broken", "08006");
+        }
+    }
+
+    private void injectFault() throws SQLException {
+        if (failureRate <= 0 && brokenRate <= 0) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (brokenRate > 0 && random.nextDouble() < brokenRate) {
+            broken = true;
+            throw new SQLException("connection reset", "08S01");
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new SQLException("injected failure", "40001");
+        }
+    }
+
+    /**
+     * 用parkNanos休眠，精度比Thread.sleep高，亚毫秒级的耗时分布也能体现出来
+     * @param nanos
+     * @throws SQLException
+     */
+    static void pause(long nanos) throws SQLException {
+        if (nanos <= 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new SQLException("interrupted", "70100");
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        simulate(DriverConfig.Operation.PREPARE);
+        return newStatement(Statement.class);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        simulate(DriverConfig.Operation.PREPARE);
+        return newStatement(PreparedStatement.class);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        simulate(DriverConfig.Operation.PREPARE);
+        return newStatement(CallableStatement.class);
+    }
+
+    private <T extends Statement> T newStatement(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(SimulatedConnection.class.getClassLoader(), new Class<?>[] {type}, new StatementHandler(this)));
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        checkOpen();
+        return sql;
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        simulate(DriverConfig.Operation.OTHER);
+        this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        checkOpen();
+        return autoCommit;
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        if (groupCommitter == null) {
+            simulate(DriverConfig.Operation.COMMIT);
+            return;
+        }
+        checkOpen();
+        try {
+            groupCommitter.commit();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted", "70100", e);
+        }
+        injectFault();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        simulate(DriverConfig.Operation.ROLLBACK);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        throw new SQLFeatureNotSupportedException("getMetaData");
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        simulate(DriverConfig.Operation.OTHER);
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        checkOpen();
+        return readOnly;
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        simulate(DriverConfig.Operation.OTHER);
+        this.catalog = catalog;
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        checkOpen();
+        return catalog;
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        simulate(DriverConfig.Operation.OTHER);
+        this.transactionIsolation = level;
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        checkOpen();
+        return transactionIsolation;
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        checkOpen();
+        return null;
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        checkOpen();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return createStatement();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return prepareStatement(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return prepareCall(sql);
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        checkOpen();
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        throw new SQLFeatureNotSupportedException("setTypeMap");
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        checkOpen();
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        checkOpen();
+        return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        throw new SQLFeatureNotSupportedException("setSavepoint");
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        throw new SQLFeatureNotSupportedException("setSavepoint");
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        throw new SQLFeatureNotSupportedException("rollback(Savepoint)");
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        throw new SQLFeatureNotSupportedException("releaseSavepoint");
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return createStatement();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return prepareStatement(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return prepareCall(sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return prepareStatement(sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return prepareStatement(sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return prepareStatement(sql);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        throw new SQLFeatureNotSupportedException("createClob");
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        throw new SQLFeatureNotSupportedException("createBlob");
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        throw new SQLFeatureNotSupportedException("createNClob");
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        throw new SQLFeatureNotSupportedException("createSQLXML");
+    }
+
+    /**
+     * 校验连接：已关闭或已断开返回false，否则模拟一次VALIDATE耗时（不注入故障）
+     */
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        if (closed || broken) {
+            return false;
+        }
+        pause(latencies[DriverConfig.Operation.VALIDATE.ordinal()].nextNanos());
+        return !broken;
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        checkOpen();
+        return null;
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        checkOpen();
+        return new Properties();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        throw new SQLFeatureNotSupportedException("createArrayOf");
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        throw new SQLFeatureNotSupportedException("createStruct");
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        simulate(DriverConfig.Operation.OTHER);
+        this.schema = schema;
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        checkOpen();
+        return schema;
+    }
+
+    @Override
+    public void abort(Executor executor) {
+        closed = true;
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        checkOpen();
+        this.networkTimeout = milliseconds;
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        checkOpen();
+        return networkTimeout;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 模拟的Statement：close()之后再调用其他方法会抛出SQLException；execute*方法按EXECUTE的耗时分布休眠并注入故障，
+     * 其余方法返回返回值类型的默认值
+     */
+    static class StatementHandler implements InvocationHandler {
+
+        private final SimulatedConnection connection;
+        private volatile boolean closed;
+
+        StatementHandler(SimulatedConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return connection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "SimulatedStatement@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("statement is closed");
+            }
+            if (method.getName().startsWith("execute")) {
+                connection.simulate(DriverConfig.Operation.EXECUTE);
+            } else {
+                connection.checkOpen();
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (!type.isPrimitive() || type == void.class) {
+                return null;
+            }
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            if (type == double.class) {
+                return 0D;
+            }
+            if (type == float.class) {
+                return 0F;
+            }
+            if (type == byte.class) {
+                return (byte) 0;
+            }
+            if (type == short.class) {
+                return (short) 0;
+            }
+            if (type == char.class) {
+                return (char) 0;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.concurrency.thread;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 单个连接上的PreparedStatement缓存，按LRU淘汰，最多缓存maxSize个
+ *
+ * 从缓存中取出的是通过动态代理包装的PreparedStatement，调用方close()时并不真正关闭，而是放回缓存；
+ * 同一条SQL的Statement正在使用时再次prepare，会创建一个不缓存的Statement。
+ * 连接同一时刻只被一个线程使用，但连接池回收连接时会在后台线程中清空缓存，所以方法都加了锁（几乎没有竞争）。
+ */
+class StatementCache {
+
+    private final int maxSize;
+    private final Connection owner;
+    private final ConnectionPoolMetrics metrics;
+    /**
+     * accessOrder为true的LinkedHashMap，遍历顺序即最近最少使用的顺序
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(int maxSize, Connection owner, ConnectionPoolMetrics metrics) {
+        this.maxSize = maxSize;
+        this.owner = owner;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 从缓存中取出一个空闲的Statement
+     * @param key
+     * @return 没有缓存或者缓存的Statement正在使用时返回null
+     */
+    synchronized PreparedStatement checkout(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.inUse) {
+            metrics.statementCacheMisses.increment();
+            return null;
+        }
+        metrics.statementCacheHits.increment();
+        entry.inUse = true;
+        return entry.newProxy(this);
+    }
+
+    /**
+     * 把新prepare的Statement放入缓存并标记为使用中，缓存已满时淘汰最近最少使用的空闲Statement
+     * @param key
+     * @param statement
+     * @return 包装后的Statement；同一个key已有Statement在使用中，或者缓存已满且所有Statement都在使用中时，直接返回原Statement不缓存
+     */
+    synchronized PreparedStatement add(Key key, PreparedStatement statement) {
+        if (entries.containsKey(key)) {
+            return statement;
+        }
+        if (entries.size() >= maxSize && !evictEldestIdle()) {
+            return statement;
+        }
+        Entry entry = new Entry(key, statement);
+        entry.inUse = true;
+        entries.put(key, entry);
+        return entry.newProxy(this);
+    }
+
+    /**
+     * 调用方close()时放回缓存，已经被淘汰的Statement则真正关闭
+     * @param entry
+     */
+    synchronized void checkin(Entry entry) {
+        entry.inUse = false;
+        if (entry.evicted) {
+            closeQuietly(entry.statement);
+            return;
+        }
+        try {
+            entry.statement.clearParameters();
+        } catch (SQLException e) {
+            //清理失败的Statement不能再复用
+            entries.remove(entry.key);
+            closeQuietly(entry.statement);
+        }
+    }
+
+    /**
+     * 清空缓存并关闭所有空闲的Statement，使用中的Statement在close()时关闭
+     */
+    synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.evicted = true;
+            if (!entry.inUse) {
+                closeQuietly(entry.statement);
+            }
+        }
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return 是否淘汰了一个空闲的Statement
+     */
+    private boolean evictEldestIdle() {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (!entry.inUse) {
+                it.remove();
+                entry.evicted = true;
+                closeQuietly(entry.statement);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 缓存的key：SQL以及影响Statement行为的参数
+     */
+    static final class Key {
+        final String sql;
+        final boolean callable;
+        final int resultSetType;
+        final int resultSetConcurrency;
+
+        Key(String sql, boolean callable, int resultSetType, int resultSetConcurrency) {
+            this.sql = sql;
+            this.callable = callable;
+            this.resultSetType = resultSetType;
+            this.resultSetConcurrency = resultSetConcurrency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return callable == other.callable
+                    && resultSetType == other.resultSetType
+                    && resultSetConcurrency == other.resultSetConcurrency
+                    && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sql, callable, resultSetType, resultSetConcurrency);
+        }
+    }
+
+    /**
+     * 缓存中的一项，inUse和evicted只在持有StatementCache的锁时读写
+     */
+    static final class Entry {
+        final Key key;
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean evicted;
+
+        Entry(Key key, PreparedStatement statement) {
+            this.key = key;
+            this.statement = statement;
+        }
+
+        /**
+         * 每次取出都创建一个新的代理，这样调用方close()之后继续使用旧引用会得到异常，而不是影响下一个使用者
+         */
+        PreparedStatement newProxy(StatementCache cache) {
+            Class<?> type = key.callable ? CallableStatement.class : PreparedStatement.class;
+            return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                    new Class<?>[] {type}, new CachedStatementHandler(cache, this));
+        }
+    }
+
+    static final class CachedStatementHandler implements InvocationHandler {
+
+        private final StatementCache cache;
+        private final Entry entry;
+        private boolean closed;
+
+        CachedStatementHandler(StatementCache cache, Entry entry) {
+            this.cache = cache;
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        cache.checkin(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "getConnection":
+                    return cache.owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + entry.key.sql + "]";
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("statement is closed");
+            }
+            try {
+                return method.invoke(entry.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.concurrency.threadlocal;
+
+import org.concurrency.util.TimestampFileParser;
+import org.concurrency.util.TimestampParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 大文件中时间戳的批量解析
+ *
+ * 生成一个每行以"yyyy-MM-dd HH:mm:ss"开头的临时文件，对比：
+ * 1. BufferedReader逐行读取 + SimpleDateFormat解析（每行一个String和一个Date）
+ * 2. TimestampFileParser：内存映射 + ForkJoinPool并行解析，结果写入long[]
+ * 3. TimestampFileParser：结果交给回调
+ */
+public class BulkTimestampParseDemo {
+
+    private static final int LINES = 2_000_000;
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException, ParseException {
+        Path file = Files.createTempFile("timestamps", ".log");
+        try {
+            generate(file);
+            long bytes = Files.size(file);
+            System.out.printf("%d lines, %d MB%n", LINES, bytes / 1024 / 1024);
+            //每种方式各执行两遍，第一遍等JIT编译完成
+            for (int round = 0; round < 2; round++) {
+                System.out.println("====== round " + (round + 1) + " ======");
+                testWithSimpleDateFormat(file, bytes);
+                for (int threads = 1; threads <= Math.max(4, Runtime.getRuntime().availableProcessors()); threads *= 2) {
+                    testWithFileParser(file, bytes, threads);
+                }
+                testWithSink(file, bytes);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void generate(Path file) throws IOException {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long start = 1557727200000L;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < LINES; i++) {
+                writer.write(sdf.format(start + i * 10L));
+                writer.write(",INFO,request-");
+                writer.write(Integer.toString(i));
+                writer.write(" GET /api/orders 200\n");
+            }
+        }
+    }
+
+    public static void testWithSimpleDateFormat(Path file, long bytes) throws IOException, ParseException {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long begin = System.nanoTime();
+        long sum = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sum += sdf.parse(line.substring(0, 19)).getTime();
+            }
+        }
+        print("BufferedReader + SimpleDateFormat", begin, bytes, sum);
+    }
+
+    public static void testWithFileParser(Path file, long bytes, int threads) throws IOException {
+        TimestampFileParser fileParser = new TimestampFileParser(new TimestampParser(ZoneId.systemDefault()), (byte) ',', 0, CHUNK_SIZE);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long begin = System.nanoTime();
+            long[] timestamps = fileParser.parse(file, pool);
+            long sum = 0;
+            for (long timestamp : timestamps) {
+                sum += timestamp;
+            }
+            print("TimestampFileParser long[], " + threads + " threads", begin, bytes, sum);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void testWithSink(Path file, long bytes) throws IOException {
+        TimestampFileParser fileParser = new TimestampFileParser(new TimestampParser(ZoneId.systemDefault()), (byte) ',', 0, CHUNK_SIZE);
+        LongAdder sum = new LongAdder();
+        long begin = System.nanoTime();
+        fileParser.parse(file, ForkJoinPool.commonPool(), (lineOffset, epochMillis) -> sum.add(epochMillis));
+        print("TimestampFileParser sink, common pool", begin, bytes, sum.sum());
+    }
+
+    private static void print(String name, long begin, long bytes, long checksum) {
+        long nanos = System.nanoTime() - begin;
+        System.out.printf("%-45s %6d ms %8.1f MB/s  checksum=%d%n", name, nanos / 1_000_000,
+                bytes / 1024.0 / 1024.0 / (nanos / 1e9), checksum);
+    }
+}
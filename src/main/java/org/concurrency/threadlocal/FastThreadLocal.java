@@ -0,0 +1,95 @@
+package org.concurrency.threadlocal;
+
+import java.util.function.Supplier;
+
+/**
+ * 基于数组下标的ThreadLocal
+ *
+ * 每个FastThreadLocal实例在创建时分配一个固定的下标，值保存在当前线程的InternalThreadLocalMap数组中的对应位置：
+ * 1. 和MyThreadLocal相比：get()不需要对Thread做hash、不访问所有线程共享的ConcurrentHashMap，线程结束后值随线程一起被回收
+ * 2. 和JDK的ThreadLocal相比：不需要在ThreadLocalMap中做线性探测，在FastThreadLocalThread中就是一次数组读取
+ *
+ * 代价是下标只增不减，每个线程的数组长度等于创建过的FastThreadLocal个数，所以FastThreadLocal应当是static的长期对象，
+ * 不要为每个请求创建新的实例
+ */
+public class FastThreadLocal<T> {
+
+    private final int index;
+
+    public FastThreadLocal() {
+        index = InternalThreadLocalMap.nextVariableIndex();
+    }
+
+    /**
+     * 创建一个初始值由supplier提供的FastThreadLocal
+     * @param supplier
+     * @param <S>
+     * @return
+     */
+    public static <S> FastThreadLocal<S> withInitial(Supplier<? extends S> supplier) {
+        return new FastThreadLocal<S>() {
+            @Override
+            protected S initialValue() {
+                return supplier.get();
+            }
+        };
+    }
+
+    /**
+     * 获取当前线程的本地变量，没有设置过时用initialValue()初始化
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public final T get() {
+        InternalThreadLocalMap map = InternalThreadLocalMap.get();
+        Object v = map.indexedVariable(index);
+        if (v != InternalThreadLocalMap.UNSET) {
+            return (T) v;
+        }
+        T value = initialValue();
+        map.setIndexedVariable(index, value);
+        return value;
+    }
+
+    /**
+     * 设置当前线程的本地变量
+     * @param value
+     */
+    public final void set(T value) {
+        InternalThreadLocalMap.get().setIndexedVariable(index, value);
+    }
+
+    /**
+     * 当前线程是否设置过该变量
+     * @return
+     */
+    public final boolean isSet() {
+        InternalThreadLocalMap map = InternalThreadLocalMap.getIfSet();
+        return map != null && map.indexedVariable(index) != InternalThreadLocalMap.UNSET;
+    }
+
+    /**
+     * 删除当前线程的本地变量，之后的get()重新调用initialValue()
+     */
+    public final void remove() {
+        InternalThreadLocalMap map = InternalThreadLocalMap.getIfSet();
+        if (map != null) {
+            map.removeIndexedVariable(index);
+        }
+    }
+
+    /**
+     * 删除当前线程的所有FastThreadLocal变量，线程池中的线程执行完一个任务后调用
+     */
+    public static void removeAll() {
+        InternalThreadLocalMap.remove();
+    }
+
+    /**
+     * 初始值，默认为null，子类可以重写
+     * @return
+     */
+    protected T initialValue() {
+        return null;
+    }
+}
@@ -0,0 +1,109 @@
+package org.concurrency.threadlocal;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * MyThreadLocal、ThreadLocal和FastThreadLocal的对比
+ *
+ * 1. 线程结束后：MyThreadLocal的map中仍然保存着死亡线程的entry，FastThreadLocal的值随线程一起被回收
+ * 2. get()的耗时：多个线程同时反复调用get()
+ */
+public class FastThreadLocalDemo {
+
+    private static final int THREADS = 4;
+    private static final int ITERATIONS = 20_000_000;
+
+    private static final MyThreadLocal<Integer> myThreadLocal = new MyThreadLocal<>();
+    private static final ThreadLocal<Integer> threadLocal = ThreadLocal.withInitial(() -> 1);
+    private static final FastThreadLocal<Integer> fastThreadLocal = FastThreadLocal.withInitial(() -> 1);
+
+    public static void testDeadThreads() throws InterruptedException {
+        System.out.println("====== Dead threads ======");
+        for (int i = 0; i < 1000; i++) {
+            Thread t = new FastThreadLocalThread(() -> {
+                myThreadLocal.set(1);
+                fastThreadLocal.set(1);
+            });
+            t.start();
+            t.join();
+        }
+        //1000个线程都已经结束，MyThreadLocal仍然持有它们的Thread对象和值
+        System.out.println("MyThreadLocal entries after 1000 threads died: " + myThreadLocal.locals.size());
+        System.out.println("FastThreadLocal keeps values in the thread itself, nothing left behind");
+    }
+
+    public static void testGet() throws InterruptedException {
+        System.out.println("====== get() x " + ITERATIONS + " per thread, " + THREADS + " threads ======");
+        myThreadLocal.locals.clear();
+        System.out.printf("%-40s %6d ms%n", "MyThreadLocal (ConcurrentHashMap)", run(false, () -> {
+            if (myThreadLocal.get() == null) {
+                myThreadLocal.set(1);
+            }
+            long sum = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += myThreadLocal.get();
+            }
+            return sum;
+        }));
+        System.out.printf("%-40s %6d ms%n", "ThreadLocal", run(false, () -> {
+            long sum = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += threadLocal.get();
+            }
+            return sum;
+        }));
+        System.out.printf("%-40s %6d ms%n", "FastThreadLocal (plain Thread)", run(false, () -> {
+            long sum = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += fastThreadLocal.get();
+            }
+            return sum;
+        }));
+        System.out.printf("%-40s %6d ms%n", "FastThreadLocal (FastThreadLocalThread)", run(true, () -> {
+            long sum = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += fastThreadLocal.get();
+            }
+            return sum;
+        }));
+    }
+
+    /**
+     * 启动THREADS个线程同时执行task，返回总耗时（毫秒）
+     */
+    private static long run(boolean fastThread, LongTask task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        long[] sink = new long[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            int n = i;
+            Runnable r = () -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                sink[n] = task.run();
+            };
+            threads[i] = fastThread ? new FastThreadLocalThread(r) : new Thread(r);
+            threads[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        return (System.nanoTime() - begin) / 1_000_000;
+    }
+
+    private interface LongTask {
+        long run();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        testDeadThreads();
+        //第一轮等JIT编译完成，看第二轮的结果
+        testGet();
+        testGet();
+    }
+}
@@ -0,0 +1,34 @@
+package org.concurrency.threadlocal;
+
+/**
+ * 直接持有InternalThreadLocalMap的线程，在这种线程中FastThreadLocal的get()只是一次数组读取
+ *
+ * 只有当前线程会读写threadLocalMap，所以不需要volatile
+ */
+public class FastThreadLocalThread extends Thread {
+
+    private InternalThreadLocalMap threadLocalMap;
+
+    public FastThreadLocalThread() {
+    }
+
+    public FastThreadLocalThread(Runnable target) {
+        super(target);
+    }
+
+    public FastThreadLocalThread(Runnable target, String name) {
+        super(target, name);
+    }
+
+    public FastThreadLocalThread(ThreadGroup group, Runnable target, String name) {
+        super(group, target, name);
+    }
+
+    InternalThreadLocalMap threadLocalMap() {
+        return threadLocalMap;
+    }
+
+    void setThreadLocalMap(InternalThreadLocalMap threadLocalMap) {
+        this.threadLocalMap = threadLocalMap;
+    }
+}
@@ -0,0 +1,150 @@
+package org.concurrency.threadlocal;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FastThreadLocal的存储：每个线程一个数组，每个FastThreadLocal实例在创建时分配一个固定的下标
+ *
+ * 1. FastThreadLocalThread直接持有自己的InternalThreadLocalMap，取值只是一次字段读取加一次数组读取
+ * 2. 普通线程没有这个字段，退化为用一个JDK的ThreadLocal保存InternalThreadLocalMap（只多一次ThreadLocalMap查找）
+ *
+ * 两种情况下数据都挂在线程对象上，线程结束后随线程一起被回收，不需要任何全局的map
+ */
+final class InternalThreadLocalMap {
+
+    /**
+     * 数组中没有设置过值的位置，用来区分"没有设置"和"设置为null"
+     */
+    static final Object UNSET = new Object();
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    /**
+     * 下一个FastThreadLocal的下标，只增不减
+     */
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * 普通线程的InternalThreadLocalMap
+     */
+    private static final ThreadLocal<InternalThreadLocalMap> slowThreadLocalMap = new ThreadLocal<>();
+
+    private Object[] indexedVariables;
+
+    private InternalThreadLocalMap() {
+        indexedVariables = newIndexedVariables(INITIAL_CAPACITY);
+    }
+
+    /**
+     * 分配一个新的下标
+     * @return
+     */
+    static int nextVariableIndex() {
+        int index = nextIndex.getAndIncrement();
+        if (index < 0) {
+            nextIndex.decrementAndGet();
+            throw new IllegalStateException("too many thread-local indexed variables");
+        }
+        return index;
+    }
+
+    /**
+     * 获取当前线程的InternalThreadLocalMap，不存在时创建
+     * @return
+     */
+    static InternalThreadLocalMap get() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof FastThreadLocalThread) {
+            FastThreadLocalThread fastThread = (FastThreadLocalThread) thread;
+            InternalThreadLocalMap map = fastThread.threadLocalMap();
+            if (map == null) {
+                map = new InternalThreadLocalMap();
+                fastThread.setThreadLocalMap(map);
+            }
+            return map;
+        }
+        InternalThreadLocalMap map = slowThreadLocalMap.get();
+        if (map == null) {
+            map = new InternalThreadLocalMap();
+            slowThreadLocalMap.set(map);
+        }
+        return map;
+    }
+
+    /**
+     * 获取当前线程的InternalThreadLocalMap，不存在时返回null
+     * @return
+     */
+    static InternalThreadLocalMap getIfSet() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof FastThreadLocalThread) {
+            return ((FastThreadLocalThread) thread).threadLocalMap();
+        }
+        return slowThreadLocalMap.get();
+    }
+
+    /**
+     * 丢弃当前线程的所有FastThreadLocal变量，线程池中的线程在任务之间调用，避免上一个任务的值泄漏到下一个任务
+     */
+    static void remove() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof FastThreadLocalThread) {
+            ((FastThreadLocalThread) thread).setThreadLocalMap(null);
+        } else {
+            slowThreadLocalMap.remove();
+        }
+    }
+
+    Object indexedVariable(int index) {
+        Object[] lookup = indexedVariables;
+        return index < lookup.length ? lookup[index] : UNSET;
+    }
+
+    /**
+     * @param index
+     * @param value
+     * @return 该位置之前是否没有设置过值
+     */
+    boolean setIndexedVariable(int index, Object value) {
+        Object[] lookup = indexedVariables;
+        if (index < lookup.length) {
+            Object old = lookup[index];
+            lookup[index] = value;
+            return old == UNSET;
+        }
+        expandIndexedVariables(index, value);
+        return true;
+    }
+
+    Object removeIndexedVariable(int index) {
+        Object[] lookup = indexedVariables;
+        if (index < lookup.length) {
+            Object old = lookup[index];
+            lookup[index] = UNSET;
+            return old;
+        }
+        return UNSET;
+    }
+
+    /**
+     * 扩容到能放下index的最小的2的幂
+     */
+    private void expandIndexedVariables(int index, Object value) {
+        Object[] oldArray = indexedVariables;
+        int newCapacity = Integer.highestOneBit(index) << 1;
+        if (newCapacity <= 0) {
+            newCapacity = Integer.MAX_VALUE - 8;
+        }
+        Object[] newArray = Arrays.copyOf(oldArray, newCapacity);
+        Arrays.fill(newArray, oldArray.length, newArray.length, UNSET);
+        newArray[index] = value;
+        indexedVariables = newArray;
+    }
+
+    private static Object[] newIndexedVariables(int capacity) {
+        Object[] array = new Object[capacity];
+        Arrays.fill(array, UNSET);
+        return array;
+    }
+}
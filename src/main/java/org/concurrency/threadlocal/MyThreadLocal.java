@@ -6,6 +6,9 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * 自定义ThreadLocal的实现
  *
+ * 问题：所有线程的get()都要对Thread做hash并访问同一个ConcurrentHashMap；线程结束后它的entry不会被删除，
+ * Thread对象和值都无法被回收。改进的实现见FastThreadLocal
+ *
  * @author kyan
  * @date 2019/5/13
  */
@@ -16,7 +19,7 @@ public class MyThreadLocal<T> {
     /**
      * 获取当前线程的本地变量
      */
-    T get() {
+    public T get() {
         return locals.get(Thread.currentThread());
     }
 
@@ -24,7 +27,7 @@ public class MyThreadLocal<T> {
      * 设置当前线程的本地变量
      * @param value
      */
-    void set(T value) {
+    public void set(T value) {
         locals.put(Thread.currentThread(), value);
     }
 }
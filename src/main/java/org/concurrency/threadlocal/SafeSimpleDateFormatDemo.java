@@ -1,13 +1,17 @@
 package org.concurrency.threadlocal;
 
 import org.concurrency.util.ConcurrentUtil;
+import org.concurrency.util.InstrumentedExecutors;
+import org.concurrency.util.InstrumentedExecutors.Backpressure;
+import org.concurrency.util.TimestampFormatter;
+import org.concurrency.util.TimestampParser;
 
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.Date;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * SimpleDateFormat线程安全的使用方法
@@ -15,6 +19,7 @@ import java.util.concurrent.Executors;
  * 方法1：通过synchronized关键字加锁
  * 方法2：把SimpleDateFormat作用局部变量
  * 方法3：用ThreadLocal封装SimpleDateFormat，保证每个线程有各自的SimpleDateFormat对象
+ * 方法5：不用SimpleDateFormat，解析改用没有可变状态的TimestampParser，格式化改用按秒缓存的TimestampFormatter
  *
  * @author kyan
  * @date 2019/5/13
@@ -40,7 +45,7 @@ public class SafeSimpleDateFormatDemo {
 
     public static void testWithSynchronized() throws InterruptedException {
         System.out.println("====== Test with synchronized ======");
-        ExecutorService pool = Executors.newFixedThreadPool(100);
+        ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("date-format", 100, 1000, Backpressure.CALLER_RUNS);
         for (int i = 0; i < 20; i++) {
             pool.submit(new Runnable() {
                 @Override
@@ -56,6 +61,7 @@ public class SafeSimpleDateFormatDemo {
             });
         }
         ConcurrentUtil.stop(pool);
+        System.out.println(pool);
     }
     // ========= 方法1：end ==========
 
@@ -75,7 +81,7 @@ public class SafeSimpleDateFormatDemo {
 
     public static void testWithLocalSimpleDateFormat() throws InterruptedException {
         System.out.println("====== Test with local SimpleDateFormat ======");
-        ExecutorService pool = Executors.newFixedThreadPool(100);
+        ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("date-format", 100, 1000, Backpressure.CALLER_RUNS);
         for (int i = 0; i < 20; i++) {
             pool.submit(new Runnable() {
                 @Override
@@ -91,6 +97,7 @@ public class SafeSimpleDateFormatDemo {
             });
         }
         ConcurrentUtil.stop(pool);
+        System.out.println(pool);
     }
     // ========== 方法2：end =================
 
@@ -115,7 +122,7 @@ public class SafeSimpleDateFormatDemo {
 
     public static void testWithThreadLocal() {
         System.out.println("====== Test with ThreadLocal ======");
-        ExecutorService pool = Executors.newFixedThreadPool(100);
+        ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("date-format", 100, 1000, Backpressure.CALLER_RUNS);
         for (int i = 0; i < 20; i++) {
             pool.submit(new Runnable() {
                 @Override
@@ -131,6 +138,7 @@ public class SafeSimpleDateFormatDemo {
             });
         }
         ConcurrentUtil.stop(pool);
+        System.out.println(pool);
     }
     // ========= 方法3：end ========
 
@@ -138,42 +146,101 @@ public class SafeSimpleDateFormatDemo {
 
     private static ThreadLocal<SimpleDateFormat> tl = new ThreadLocal<>();
 
-    static class DateUtils implements Runnable {
+    public static class DateUtils implements Runnable {
         private String dateStr;
 
         public DateUtils(String dateStr) {
             this.dateStr = dateStr;
         }
 
+        /**
+         * 当前线程的SimpleDateFormat，第一次使用时创建并放入ThreadLocal
+         */
+        private static SimpleDateFormat currentFormat() {
+            SimpleDateFormat sdf = tl.get();
+            if (sdf == null) {
+                sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+                tl.set(sdf);
+            }
+            return sdf;
+        }
+
+        public static String format(Date date) {
+            return currentFormat().format(date);
+        }
+
+        public static Date parse(String dateStr) throws ParseException {
+            return currentFormat().parse(dateStr);
+        }
+
         @Override
         public void run() {
-            if (tl.get() == null) {
-                tl.set(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"));
-            } else {
-                try {
-                    Date date = tl.get().parse(this.dateStr);
-                    System.out.println(date);
-                } catch (ParseException e) {
-                    e.printStackTrace();
-                }
+            try {
+                Date date = parse(this.dateStr);
+                System.out.println(date);
+            } catch (ParseException e) {
+                e.printStackTrace();
             }
         }
     }
 
     public static void testWithThreadLocalAndDateUtils() {
         System.out.println("====== Test with ThreadLocal&DateUtils ======");
-        ExecutorService pool = Executors.newFixedThreadPool(100);
+        ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("date-format", 100, 1000, Backpressure.CALLER_RUNS);
         for (int i = 0; i < 200; i++) {
             pool.submit(new DateUtils("2019-05-13 14:00:00"));
         }
         ConcurrentUtil.stop(pool);
+        System.out.println(pool);
+    }
+
+    // ========= 方法5：TimestampParser & TimestampFormatter =========
+    // 固定格式的解析器没有可变状态，可以定义为static变量被所有线程共享，既不用加锁也不用ThreadLocal，
+    // 而且直接返回epoch毫秒，不创建Date、Calendar对象；
+    // 格式化器在每个线程中缓存当前这一秒的结果，同一秒内的调用只是复制字符，可以直接写入调用方的StringBuilder
+
+    private static final TimestampParser parser = new TimestampParser(ZoneId.systemDefault());
+    private static final TimestampFormatter formatter = new TimestampFormatter(ZoneId.systemDefault(), false);
+
+    public static String formatDate5(Date date) {
+        return formatter.format(date.getTime());
+    }
+
+    public static void formatDate5(long epochMillis, StringBuilder sb) {
+        formatter.format(epochMillis, sb);
+    }
+
+    public static long parse5(String dateStr) {
+        return parser.parse(dateStr);
+    }
+
+    public static void testWithTimestampParser() {
+        System.out.println("====== Test with TimestampParser & TimestampFormatter ======");
+        ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("date-format", 100, 1000, Backpressure.CALLER_RUNS);
+        for (int i = 0; i < 20; i++) {
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    StringBuilder sb = new StringBuilder();
+                    for (int j = 0; j < 10; j++) {
+                        sb.setLength(0);
+                        formatDate5(parse5("2019-05-13 14:00:00"), sb);
+                        System.out.println(sb);
+                    }
+                }
+            });
+        }
+        ConcurrentUtil.stop(pool);
+        System.out.println(pool);
     }
+    // ========= 方法5：end ========
 
     public static void main(String[] args) throws InterruptedException {
 //        testWithSynchronized();
 //        testWithLocalSimpleDateFormat();
         testWithThreadLocal();
 //        testWithThreadLocalAndDateUtils();
+//        testWithTimestampParser();
     }
 
 }
@@ -0,0 +1,161 @@
+package org.concurrency.threadlocal;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 把TransmittableThreadLocal的值传递到任务中
+ *
+ * 1. ExecutorService/ForkJoinPool：wrap(executorService)，每次execute/submit/invokeAll时捕获提交线程的值
+ * 2. CompletableFuture：supplyAsync/runAsync的任务以及thenApply等回调用supplier()/function()等包装，
+ *    在创建阶段（调用thenApply的线程）时捕获，而不是在回调真正执行时捕获——回调可能在完成上一阶段的任意线程上执行
+ * 3. ForkJoinPool中递归拆分的任务：继承TransmittableRecursiveTask
+ *
+ * 每次包装只保存一个快照数组的引用，不复制任何值
+ */
+public final class TransmittableExecutors {
+
+    private TransmittableExecutors() {
+    }
+
+    /**
+     * 包装ExecutorService（包括ForkJoinPool），shutdown等生命周期方法直接转发；
+     * shutdownNow()返回的是包装后的任务
+     * @param executorService
+     * @return
+     */
+    public static ExecutorService wrap(ExecutorService executorService) {
+        return new TransmittableExecutorService(executorService);
+    }
+
+    /**
+     * 包装Executor，比如作为CompletableFuture的xxxAsync方法的executor参数
+     * @param executor
+     * @return
+     */
+    public static Executor wrap(Executor executor) {
+        return command -> executor.execute(runnable(command));
+    }
+
+    public static Runnable runnable(Runnable runnable) {
+        Object[] captured = TransmittableThreadLocal.capture();
+        return () -> {
+            Object[] backup = TransmittableThreadLocal.replay(captured);
+            try {
+                runnable.run();
+            } finally {
+                TransmittableThreadLocal.restore(backup);
+            }
+        };
+    }
+
+    public static <V> Callable<V> callable(Callable<V> callable) {
+        Object[] captured = TransmittableThreadLocal.capture();
+        return () -> {
+            Object[] backup = TransmittableThreadLocal.replay(captured);
+            try {
+                return callable.call();
+            } finally {
+                TransmittableThreadLocal.restore(backup);
+            }
+        };
+    }
+
+    public static <V> Supplier<V> supplier(Supplier<V> supplier) {
+        Object[] captured = TransmittableThreadLocal.capture();
+        return () -> {
+            Object[] backup = TransmittableThreadLocal.replay(captured);
+            try {
+                return supplier.get();
+            } finally {
+                TransmittableThreadLocal.restore(backup);
+            }
+        };
+    }
+
+    public static <T, R> Function<T, R> function(Function<T, R> function) {
+        Object[] captured = TransmittableThreadLocal.capture();
+        return t -> {
+            Object[] backup = TransmittableThreadLocal.replay(captured);
+            try {
+                return function.apply(t);
+            } finally {
+                TransmittableThreadLocal.restore(backup);
+            }
+        };
+    }
+
+    public static <T> Consumer<T> consumer(Consumer<T> consumer) {
+        Object[] captured = TransmittableThreadLocal.capture();
+        return t -> {
+            Object[] backup = TransmittableThreadLocal.replay(captured);
+            try {
+                consumer.accept(t);
+            } finally {
+                TransmittableThreadLocal.restore(backup);
+            }
+        };
+    }
+
+    public static <T, U, R> BiFunction<T, U, R> biFunction(BiFunction<T, U, R> function) {
+        Object[] captured = TransmittableThreadLocal.capture();
+        return (t, u) -> {
+            Object[] backup = TransmittableThreadLocal.replay(captured);
+            try {
+                return function.apply(t, u);
+            } finally {
+                TransmittableThreadLocal.restore(backup);
+            }
+        };
+    }
+
+    /**
+     * submit/invokeAll/invokeAny都经过AbstractExecutorService最终调用execute，所以只需要在execute中包装
+     */
+    private static class TransmittableExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        TransmittableExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(runnable(command));
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
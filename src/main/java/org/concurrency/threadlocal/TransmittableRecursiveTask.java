@@ -0,0 +1,32 @@
+package org.concurrency.threadlocal;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 在ForkJoinPool中传递TransmittableThreadLocal的RecursiveTask
+ *
+ * 创建任务时捕获当前线程的值：根任务在提交线程中创建，子任务在父任务的compute()中创建（此时已经重放了父任务的值），
+ * 所以无论子任务被哪个工作线程窃取，看到的都是提交线程的值
+ */
+public abstract class TransmittableRecursiveTask<V> extends RecursiveTask<V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] captured = TransmittableThreadLocal.capture();
+
+    @Override
+    protected final V compute() {
+        Object[] backup = TransmittableThreadLocal.replay(captured);
+        try {
+            return doCompute();
+        } finally {
+            TransmittableThreadLocal.restore(backup);
+        }
+    }
+
+    /**
+     * 代替compute()实现计算逻辑
+     * @return
+     */
+    protected abstract V doCompute();
+}
@@ -0,0 +1,85 @@
+package org.concurrency.threadlocal;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 可以传递到线程池任务中的线程本地变量
+ *
+ * 普通的ThreadLocal只在设置它的线程中可见，提交到线程池的任务在工作线程中执行，读不到提交者设置的值。
+ * TransmittableThreadLocal在提交任务时捕获（capture）当前线程所有TransmittableThreadLocal的值，
+ * 在工作线程执行任务前重放（replay），执行完再恢复（restore）工作线程原来的值。
+ *
+ * 实现：每个线程的所有TransmittableThreadLocal的值保存在一个不可变的数组中（每个实例一个固定的下标），
+ * set()时复制整个数组再替换（写时复制），所以capture()只需要返回当前数组的引用，不需要复制map；
+ * replay()/restore()也只是替换一个引用。适合读多写少、值在请求开始时设置一次的场景（比如请求上下文）。
+ *
+ * 值按引用传递，工作线程和提交者看到的是同一个对象，传递可变对象时需要注意线程安全
+ */
+public class TransmittableThreadLocal<T> {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+
+    /**
+     * 当前线程所有TransmittableThreadLocal的值，数组创建后不再修改
+     */
+    private static final FastThreadLocal<Object[]> values = FastThreadLocal.withInitial(() -> EMPTY);
+
+    private final int index = nextIndex.getAndIncrement();
+
+    /**
+     * 获取当前线程的值，没有设置过时返回null
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        Object[] current = values.get();
+        return index < current.length ? (T) current[index] : null;
+    }
+
+    /**
+     * 设置当前线程的值：复制当前的数组再替换，之前捕获的快照不受影响
+     * @param value
+     */
+    public void set(T value) {
+        Object[] current = values.get();
+        Object[] copy = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        copy[index] = value;
+        values.set(copy);
+    }
+
+    public void remove() {
+        if (index < values.get().length) {
+            set(null);
+        }
+    }
+
+    /**
+     * 捕获当前线程所有TransmittableThreadLocal的值，在提交任务的线程中调用
+     * @return 不可变的快照，可以在多个线程之间共享
+     */
+    public static Object[] capture() {
+        return values.get();
+    }
+
+    /**
+     * 在执行任务的线程中用快照替换当前的值
+     * @param captured capture()返回的快照
+     * @return 执行任务前的值，任务执行完后传给restore()
+     */
+    public static Object[] replay(Object[] captured) {
+        Object[] backup = values.get();
+        values.set(captured);
+        return backup;
+    }
+
+    /**
+     * 任务执行完后恢复执行任务前的值
+     * @param backup replay()的返回值
+     */
+    public static void restore(Object[] backup) {
+        values.set(backup);
+    }
+}
@@ -0,0 +1,104 @@
+package org.concurrency.threadlocal;
+
+import org.concurrency.util.ConcurrentUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 请求上下文在线程池任务中的传递
+ *
+ * 1. ThreadLocal：工作线程读不到提交线程设置的值
+ * 2. TransmittableThreadLocal + 包装后的ExecutorService
+ * 3. TransmittableThreadLocal + CompletableFuture
+ * 4. TransmittableThreadLocal + ForkJoinPool
+ */
+public class TransmittableThreadLocalDemo {
+
+    private static final ThreadLocal<String> plainRequestId = new ThreadLocal<>();
+    private static final TransmittableThreadLocal<String> requestId = new TransmittableThreadLocal<>();
+
+    public static void testWithThreadLocal() throws InterruptedException {
+        System.out.println("====== Test with ThreadLocal ======");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            plainRequestId.set("request-" + i);
+            pool.submit(() -> System.out.println(Thread.currentThread().getName() + " requestId=" + plainRequestId.get()));
+        }
+        ConcurrentUtil.stop(pool);
+    }
+
+    public static void testWithExecutorService() throws InterruptedException {
+        System.out.println("====== Test with TransmittableThreadLocal & ExecutorService ======");
+        ExecutorService pool = TransmittableExecutors.wrap(Executors.newFixedThreadPool(4));
+        for (int i = 0; i < 4; i++) {
+            requestId.set("request-" + i);
+            pool.submit(() -> System.out.println(Thread.currentThread().getName() + " requestId=" + requestId.get()));
+        }
+        ConcurrentUtil.stop(pool);
+    }
+
+    public static void testWithCompletableFuture() throws InterruptedException {
+        System.out.println("====== Test with TransmittableThreadLocal & CompletableFuture ======");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[4];
+        for (int i = 0; i < 4; i++) {
+            requestId.set("request-" + i);
+            futures[i] = CompletableFuture
+                    .supplyAsync(TransmittableExecutors.supplier(() -> "supplyAsync requestId=" + requestId.get()), pool)
+                    .thenApplyAsync(TransmittableExecutors.function(s -> s + ", thenApplyAsync requestId=" + requestId.get()))
+                    .thenAccept(System.out::println);
+        }
+        CompletableFuture.allOf(futures).join();
+        ConcurrentUtil.stop(pool);
+    }
+
+    public static void testWithForkJoinPool() {
+        System.out.println("====== Test with TransmittableThreadLocal & ForkJoinPool ======");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        requestId.set("request-fork-join");
+        long sum = pool.invoke(new SumTask(0, 1000));
+        System.out.println("sum=" + sum);
+        pool.shutdown();
+    }
+
+    /**
+     * 递归求和，每个叶子任务打印自己看到的requestId
+     */
+    private static class SumTask extends TransmittableRecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        SumTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long doCompute() {
+            if (to - from <= 250) {
+                System.out.println(Thread.currentThread().getName() + " [" + from + ", " + to + ") requestId=" + requestId.get());
+                long sum = 0;
+                for (int i = from; i < to; i++) {
+                    sum += i;
+                }
+                return sum;
+            }
+            int mid = (from + to) >>> 1;
+            SumTask left = new SumTask(from, mid);
+            left.fork();
+            return new SumTask(mid, to).compute() + left.join();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        testWithThreadLocal();
+        testWithExecutorService();
+        testWithCompletableFuture();
+        testWithForkJoinPool();
+    }
+}
@@ -1,12 +1,13 @@
 package org.concurrency.threadlocal;
 
 import org.concurrency.util.ConcurrentUtil;
+import org.concurrency.util.InstrumentedExecutors;
+import org.concurrency.util.InstrumentedExecutors.Backpressure;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * SimpleDateFormat是非线程安全的
@@ -34,7 +35,7 @@ public class UnsafeSimpleDateFormatDemo {
     }
 
     public static void main(String[] args) throws InterruptedException {
-        ExecutorService pool = Executors.newFixedThreadPool(100);
+        ExecutorService pool = InstrumentedExecutors.newFixedThreadPool("date-format", 100, 1000, Backpressure.CALLER_RUNS);
         for (int i = 0; i < 20; i++) {
             pool.submit(new Runnable() {
                 @Override
@@ -50,6 +51,7 @@ public class UnsafeSimpleDateFormatDemo {
             });
         }
         ConcurrentUtil.stop(pool);
+        System.out.println(pool);
         //打印结果可能如下：
         //Mon May 13 14:00:00 CST 2019
         //Mon May 13 14:00:00 CST 2019
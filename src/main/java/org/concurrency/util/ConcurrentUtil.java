@@ -0,0 +1,59 @@
+package org.concurrency.util;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author kyan
+ * @date 2019/5/13
+ */
+public class ConcurrentUtil {
+
+    public static void stop(ExecutorService executor) {
+        stop(executor, 60);
+    }
+
+    public static void stop(ExecutorService executor, int awaitTime) {
+        stopAll(awaitTime, executor);
+    }
+
+    /**
+     * 在awaitTime秒内并行地关闭所有线程池，总耗时不超过awaitTime，而不是每个线程池各等awaitTime
+     * @param awaitTime 总的超时时间（秒）
+     * @param executors
+     * @return 每个线程池的关闭结果，包括终止所用的时间以及被强制关闭时没有执行的任务
+     */
+    public static List<ShutdownCoordinator.Result> stopAll(int awaitTime, ExecutorService... executors) {
+        System.out.println("attempt to shutdown");
+        List<ShutdownCoordinator.Result> results = ShutdownCoordinator.shutdown(awaitTime, TimeUnit.SECONDS, executors);
+        if (Thread.currentThread().isInterrupted()) {
+            System.err.println("termination interrupted");
+        }
+        for (ShutdownCoordinator.Result result : results) {
+            if (result.isForced()) {
+                System.err.println("killing non-finished tasks, " + result);
+            } else if (executors.length > 1) {
+                System.out.println(result);
+            }
+        }
+        System.out.println("shutdown finished");
+        return results;
+    }
+
+    public static void sleepBySec(int seconds) {
+        try {
+            TimeUnit.SECONDS.sleep(seconds);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void sleepByMillis(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.concurrency.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * InstrumentedThreadPoolExecutor的指标
+ *
+ * 排队时间、执行时间和每次提交时采样的队列深度记录在无锁的Histogram中，各种次数用LongAdder累加；
+ * 当前的活跃线程数、线程数、队列长度只在读取时向线程池查询，不占用提交和执行任务的路径
+ */
+public class ExecutorMetrics {
+
+    InstrumentedThreadPoolExecutor executor;
+
+    /**
+     * 任务从提交到开始执行的排队时间（纳秒）
+     */
+    final Histogram queueWait = new Histogram();
+    /**
+     * 任务的执行时间（纳秒），包括由提交线程自己执行（CALLER_RUNS）的任务
+     */
+    final Histogram executionTime = new Histogram();
+    /**
+     * 每次提交后采样的队列深度
+     */
+    final Histogram queueDepth = new Histogram();
+    /**
+     * 提交成功的任务数，包括由提交线程自己执行（CALLER_RUNS）的任务，不包括被拒绝的任务
+     */
+    final LongAdder submitted = new LongAdder();
+    /**
+     * 抛出异常的任务数（submit()提交的任务异常被FutureTask捕获，不计入）
+     */
+    final LongAdder failures = new LongAdder();
+    /**
+     * 被拒绝（抛出RejectedExecutionException）的任务数
+     */
+    final LongAdder rejections = new LongAdder();
+    /**
+     * 队列满时由提交线程自己执行的任务数
+     */
+    final LongAdder callerRuns = new LongAdder();
+    /**
+     * 任务不能立即交给线程执行的次数：提交后队列不为空（需要排队），或者进入了拒绝策略（CALLER_RUNS或者拒绝），
+     * 线程池关闭后的拒绝不计入
+     */
+    final LongAdder saturated = new LongAdder();
+    /**
+     * 所有任务执行时间之和（纳秒），用于计算线程利用率
+     */
+    final LongAdder busyNanos = new LongAdder();
+
+    private volatile long resetNanos = System.nanoTime();
+
+    public Histogram getQueueWaitHistogram() {
+        return queueWait;
+    }
+
+    public Histogram getExecutionTimeHistogram() {
+        return executionTime;
+    }
+
+    public Histogram getQueueDepthHistogram() {
+        return queueDepth;
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    public int getMaxPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return executionTime.getCount();
+    }
+
+    public long getFailedCount() {
+        return failures.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejections.sum();
+    }
+
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+
+    public long getSaturatedCount() {
+        return saturated.sum();
+    }
+
+    /**
+     * 线程利用率：上次重置以来任务执行时间之和 / (经过的时间 * 最大线程数)，接近1说明线程池已经饱和
+     * @return 0~1，CALLER_RUNS的任务也计入执行时间，所以可能略大于1
+     */
+    public double getUtilization() {
+        long elapsed = System.nanoTime() - resetNanos;
+        return elapsed <= 0 ? 0 : (double) busyNanos.sum() / elapsed / executor.getMaximumPoolSize();
+    }
+
+    public long getQueueWaitP50Micros() {
+        return micros(queueWait.getValueAtPercentile(50));
+    }
+
+    public long getQueueWaitP99Micros() {
+        return micros(queueWait.getValueAtPercentile(99));
+    }
+
+    public long getQueueWaitMaxMicros() {
+        return micros(queueWait.getMax());
+    }
+
+    public long getExecutionTimeP50Micros() {
+        return micros(executionTime.getValueAtPercentile(50));
+    }
+
+    public long getExecutionTimeP99Micros() {
+        return micros(executionTime.getValueAtPercentile(99));
+    }
+
+    public long getExecutionTimeMaxMicros() {
+        return micros(executionTime.getMax());
+    }
+
+    public void resetStatistics() {
+        queueWait.reset();
+        executionTime.reset();
+        queueDepth.reset();
+        submitted.reset();
+        failures.reset();
+        rejections.reset();
+        callerRuns.reset();
+        saturated.reset();
+        busyNanos.reset();
+        resetNanos = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return "active=" + getActiveThreads() + "/" + getMaxPoolSize()
+                + ", queue=" + getQueueSize()
+                + ", submitted=" + getSubmittedCount()
+                + ", completed=" + getCompletedCount()
+                + ", failed=" + getFailedCount()
+                + ", rejected=" + getRejectedCount()
+                + ", callerRuns=" + getCallerRunsCount()
+                + ", saturated=" + getSaturatedCount()
+                + ", utilization=" + String.format("%.2f", getUtilization())
+                + ", queueDepth p99/max=" + queueDepth.getValueAtPercentile(99) + "/" + queueDepth.getMax()
+                + ", wait(us) p50/p99/max=" + getQueueWaitP50Micros() + "/" + getQueueWaitP99Micros()
+                + "/" + getQueueWaitMaxMicros()
+                + ", exec(us) p50/p99/max=" + getExecutionTimeP50Micros() + "/" + getExecutionTimeP99Micros()
+                + "/" + getExecutionTimeMaxMicros();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
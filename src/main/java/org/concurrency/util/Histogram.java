@@ -0,0 +1,109 @@
+package org.concurrency.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁的对数分桶直方图，用于记录延迟分布并计算p50/p99/p999
+ *
+ * 小于16的值每个值一个桶；大于等于16的值按最高位分组，每组再按接下来的4位分成16个子桶，
+ * 所以任意值的相对误差不超过1/16（约6%），全部桶加起来只有960个long。
+ * record()只是对一个桶做一次原子自增，多线程记录时不需要加锁；读取百分位时遍历所有桶，结果是近似的快照。
+ * 桶没有按线程分段，很多线程同时记录相近的值时会对同一个桶（同一条缓存行）做CAS，竞争比LongAdder激烈。
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    /**
+     * 记录一个值，负数按0记录
+     * @param value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * 获取百分位上的值（所在桶的上界）
+     * @param percentile 0~100，比如99.9
+     * @return 没有记录时返回0
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * 清空所有记录，与record()并发执行时可能丢失少量记录
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + sub;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exp = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKET_COUNT;
+        int shift = exp - SUB_BUCKET_BITS;
+        return ((SUB_BUCKET_COUNT + sub + 1) << shift) - 1;
+    }
+}
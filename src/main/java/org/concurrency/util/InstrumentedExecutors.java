@@ -0,0 +1,70 @@
+package org.concurrency.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带指标、队列有界的线程池工厂，用来代替Executors.newFixedThreadPool
+ *
+ * Executors.newFixedThreadPool使用无界的LinkedBlockingQueue：生产速度超过处理速度时任务无限堆积，
+ * 排队时间越来越长，直到内存耗尽，而从外面看不到任何迹象。这里创建的线程池：
+ * 1. 队列必须有界，队列满时按Backpressure处理：CALLER_RUNS由提交任务的线程自己执行（自然地降低提交速度），
+ *    FAIL_FAST直接抛出RejectedExecutionException
+ * 2. 记录队列深度、排队时间、执行时间、拒绝次数、线程利用率等指标，见ExecutorMetrics
+ * 3. 线程名为"{name}-{序号}"，方便在线程dump中区分
+ */
+public class InstrumentedExecutors {
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum Backpressure {
+        /**
+         * 由提交任务的线程自己执行，提交方被拖慢，相当于把压力传回上游；线程池已关闭时抛出RejectedExecutionException
+         */
+        CALLER_RUNS,
+        /**
+         * 直接抛出RejectedExecutionException，由调用方决定降级或者返回错误
+         */
+        FAIL_FAST
+    }
+
+    /**
+     * 固定线程数的线程池
+     * @param name 线程名前缀
+     * @param threads 线程数
+     * @param queueCapacity 队列容量，为0时不排队（SynchronousQueue），所有线程都忙时立即按backpressure处理
+     * @param backpressure 队列满时的处理方式
+     * @return
+     */
+    public static InstrumentedThreadPoolExecutor newFixedThreadPool(String name, int threads, int queueCapacity,
+                                                                    Backpressure backpressure) {
+        return newThreadPool(name, threads, threads, 0L, queueCapacity, backpressure);
+    }
+
+    /**
+     * 可伸缩的线程池，注意ThreadPoolExecutor只有在队列满了之后才会创建超过coreThreads的线程
+     * @param name 线程名前缀
+     * @param coreThreads 核心线程数
+     * @param maxThreads 最大线程数
+     * @param keepAliveMillis 超过核心线程数的线程空闲多久后退出
+     * @param queueCapacity 队列容量，为0时不排队
+     * @param backpressure 线程数达到maxThreads且队列满时的处理方式
+     * @return
+     */
+    public static InstrumentedThreadPoolExecutor newThreadPool(String name, int coreThreads, int maxThreads,
+                                                               long keepAliveMillis, int queueCapacity,
+                                                               Backpressure backpressure) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity must not be negative");
+        }
+        //LinkedBlockingQueue.size()只是读取一个AtomicInteger，每次提交时采样队列深度不需要加锁
+        BlockingQueue<Runnable> queue = queueCapacity == 0
+                ? new SynchronousQueue<>()
+                : new LinkedBlockingQueue<>(queueCapacity);
+        return new InstrumentedThreadPoolExecutor(name, coreThreads, maxThreads, keepAliveMillis, TimeUnit.MILLISECONDS,
+                queue, backpressure);
+    }
+}
@@ -0,0 +1,172 @@
+package org.concurrency.util;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 记录指标的ThreadPoolExecutor，由InstrumentedExecutors创建
+ *
+ * execute()把任务包装成TimedTask并记下提交时间，任务开始执行时记录排队时间，结束时记录执行时间；
+ * 提交成功后才计入提交数，并读取一次队列长度作为队列深度的采样。submit()/invokeAll()最终都经过execute()，同样会被统计。
+ * 饱和次数不能只看队列长度：SynchronousQueue的队列长度永远是0，所有线程都忙时任务直接进入拒绝策略，
+ * 所以进入拒绝策略（CALLER_RUNS或者拒绝）的提交也计入饱和次数，同一次提交只计一次。
+ * 计数器都是LongAdder，不会因为统计而竞争同一个变量；Histogram的桶是一个没有分段的AtomicLongArray，
+ * 耗时相近的任务会对同一个桶做原子自增，线程很多、任务很短时这里会有竞争
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final ExecutorMetrics metrics;
+
+    InstrumentedThreadPoolExecutor(String name, int coreThreads, int maxThreads, long keepAlive, TimeUnit unit,
+                                   BlockingQueue<Runnable> queue, InstrumentedExecutors.Backpressure backpressure) {
+        this(name, coreThreads, maxThreads, keepAlive, unit, queue, backpressure, new ExecutorMetrics());
+    }
+
+    private InstrumentedThreadPoolExecutor(String name, int coreThreads, int maxThreads, long keepAlive, TimeUnit unit,
+                                           BlockingQueue<Runnable> queue, InstrumentedExecutors.Backpressure backpressure,
+                                           ExecutorMetrics metrics) {
+        super(coreThreads, maxThreads, keepAlive, unit, queue, new NamedThreadFactory(name),
+                new BackpressureHandler(name, backpressure, metrics));
+        this.name = name;
+        this.metrics = metrics;
+        metrics.executor = this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ExecutorMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        TimedTask task = new TimedTask(command, metrics);
+        //被拒绝时抛出RejectedExecutionException，不计入提交数
+        super.execute(task);
+        metrics.submitted.increment();
+        int depth = getQueue().size();
+        metrics.queueDepth.record(depth);
+        if (depth > 0 && !task.backpressured) {
+            //提交后队列里还有任务，说明所有线程都在忙；进入过拒绝策略的已经在BackpressureHandler中计入
+            metrics.saturated.increment();
+        }
+    }
+
+    /**
+     * 返回的是提交时的原始任务（对submit()提交的任务来说是FutureTask），而不是内部的包装
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> tasks = super.shutdownNow();
+        for (int i = 0; i < tasks.size(); i++) {
+            Runnable task = tasks.get(i);
+            if (task instanceof TimedTask) {
+                tasks.set(i, ((TimedTask) task).task);
+            }
+        }
+        return tasks;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + metrics + "]";
+    }
+
+    /**
+     * 记录排队时间和执行时间的包装
+     */
+    static final class TimedTask implements Runnable {
+        final Runnable task;
+        private final ExecutorMetrics metrics;
+        private final long submitNanos;
+        /**
+         * 是否进入过拒绝策略，只在提交线程中读写
+         */
+        boolean backpressured;
+
+        TimedTask(Runnable task, ExecutorMetrics metrics) {
+            this.task = task;
+            this.metrics = metrics;
+            this.submitNanos = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            metrics.queueWait.record(start - submitNanos);
+            boolean failed = true;
+            try {
+                task.run();
+                failed = false;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                metrics.executionTime.record(elapsed);
+                metrics.busyNanos.add(elapsed);
+                if (failed) {
+                    metrics.failures.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * 统计拒绝次数，然后按Backpressure处理
+     */
+    private static final class BackpressureHandler implements RejectedExecutionHandler {
+        private final String name;
+        private final InstrumentedExecutors.Backpressure backpressure;
+        private final ExecutorMetrics metrics;
+
+        BackpressureHandler(String name, InstrumentedExecutors.Backpressure backpressure, ExecutorMetrics metrics) {
+            this.name = name;
+            this.backpressure = backpressure;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                //线程和队列都满了（SynchronousQueue时是所有线程都在忙），关闭后的拒绝不算饱和
+                metrics.saturated.increment();
+                if (r instanceof TimedTask) {
+                    ((TimedTask) r).backpressured = true;
+                }
+            }
+            //CallerRunsPolicy在线程池关闭后会静默丢弃任务，这里改为抛出异常，不让任务悄悄丢失
+            if (backpressure == InstrumentedExecutors.Backpressure.CALLER_RUNS && !executor.isShutdown()) {
+                metrics.callerRuns.increment();
+                r.run();
+                return;
+            }
+            metrics.rejections.increment();
+            throw new RejectedExecutionException("executor " + name + " rejected task, "
+                    + (executor.isShutdown() ? "already shutdown" : "queue is full"));
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger sequence = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, name + "-" + sequence.incrementAndGet());
+        }
+    }
+}
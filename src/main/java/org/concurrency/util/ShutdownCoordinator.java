@@ -0,0 +1,167 @@
+package org.concurrency.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在一个总的截止时间内并行地关闭多个线程池
+ *
+ * 逐个调用shutdown() + awaitTermination(60s)时，每个线程池的等待时间是累加的，十几个线程池就可能要等几分钟。
+ * 这里的做法：
+ * 1. 先对所有线程池调用shutdown()，它们同时开始处理剩余的任务
+ * 2. 每个线程池由一个等待线程调用awaitTermination，记录各自终止所用的时间
+ * 3. 总时间的90%用于正常关闭；到时仍未终止的线程池调用shutdownNow()，收集还没开始执行的任务，中断正在执行的任务
+ * 4. 剩下的10%等待被中断的任务退出，到截止时间后不再等待，直接返回每个线程池的结果
+ *
+ * shutdownNow()返回的任务不会被执行，也不会被取消：submit()提交的任务是FutureTask，
+ * 如果有线程在等待它的结果，需要由调用方取消或者重新提交到别的地方
+ */
+public class ShutdownCoordinator {
+
+    /**
+     * 在timeout内关闭所有线程池
+     * @param timeout 总的超时时间
+     * @param unit
+     * @param executors
+     * @return 按参数顺序返回每个线程池的结果
+     */
+    public static List<Result> shutdown(long timeout, TimeUnit unit, ExecutorService... executors) {
+        return shutdown(timeout, unit, Arrays.asList(executors));
+    }
+
+    public static List<Result> shutdown(long timeout, TimeUnit unit, Collection<? extends ExecutorService> executors) {
+        long start = System.nanoTime();
+        long timeoutNanos = unit.toNanos(timeout);
+        long deadline = start + timeoutNanos;
+        long gracefulDeadline = deadline - timeoutNanos / 10;
+
+        List<Result> results = new ArrayList<>(executors.size());
+        int index = 0;
+        for (ExecutorService executor : executors) {
+            String name = executor instanceof InstrumentedThreadPoolExecutor
+                    ? ((InstrumentedThreadPoolExecutor) executor).getName()
+                    : "executor-" + index;
+            results.add(new Result(name, executor, start));
+            index++;
+        }
+        for (Result result : results) {
+            result.executor.shutdown();
+        }
+
+        CountDownLatch terminated = new CountDownLatch(results.size());
+        for (Result result : results) {
+            Thread waiter = new Thread(() -> {
+                try {
+                    if (result.executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        result.drainNanos = System.nanoTime() - start;
+                        result.terminated = true;
+                        terminated.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    //不会被中断，等待线程只在这里使用
+                }
+            }, "shutdown-" + result.name);
+            waiter.setDaemon(true);
+            waiter.start();
+        }
+
+        boolean interrupted = false;
+        try {
+            terminated.await(gracefulDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            //调用方被中断时跳过剩余的等待，直接强制关闭
+            interrupted = true;
+        }
+        for (Result result : results) {
+            if (!result.terminated && !result.executor.isTerminated()) {
+                result.forced = true;
+                result.unstartedTasks = result.executor.shutdownNow();
+            }
+        }
+        //等待被中断的任务退出；刚好在检查之前终止的线程池，也在这里等它的等待线程记下终止时间
+        if (terminated.getCount() > 0 && !interrupted) {
+            try {
+                terminated.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    /**
+     * 一个线程池的关闭结果
+     */
+    public static final class Result {
+        private final String name;
+        private final ExecutorService executor;
+        private final long startNanos;
+        private volatile boolean terminated;
+        private volatile long drainNanos;
+        private volatile boolean forced;
+        private volatile List<Runnable> unstartedTasks = Collections.emptyList();
+
+        Result(String name, ExecutorService executor, long startNanos) {
+            this.name = name;
+            this.executor = executor;
+            this.startNanos = startNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ExecutorService getExecutor() {
+            return executor;
+        }
+
+        /**
+         * 是否在截止时间之前终止
+         * @return
+         */
+        public boolean isTerminated() {
+            return terminated;
+        }
+
+        /**
+         * 从开始关闭到终止所用的时间；未终止时为到目前为止经过的时间
+         * @param unit
+         * @return
+         */
+        public long getDrainTime(TimeUnit unit) {
+            return unit.convert(terminated ? drainNanos : System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * 是否因为正常关闭超时而调用了shutdownNow()
+         * @return
+         */
+        public boolean isForced() {
+            return forced;
+        }
+
+        /**
+         * shutdownNow()返回的还没开始执行的任务，没有强制关闭时为空
+         * @return
+         */
+        public List<Runnable> getUnstartedTasks() {
+            return unstartedTasks;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + (terminated ? "terminated" : "NOT terminated")
+                    + " in " + getDrainTime(TimeUnit.MILLISECONDS) + " ms"
+                    + (forced ? ", forced, " + unstartedTasks.size() + " unstarted tasks dropped" : "");
+        }
+    }
+}
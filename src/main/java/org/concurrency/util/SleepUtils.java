@@ -1,8 +1,19 @@
 package org.concurrency.util;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author kyan
  * @date 2019/10/15
  */
-public class SleepUtil {
+public class SleepUtils {
+
+    public static void second(long seconds) {
+        try {
+            TimeUnit.SECONDS.sleep(seconds);
+        } catch (InterruptedException e) {
+            //只用于demo中让线程充分运行，被中断时恢复中断状态后直接返回
+            Thread.currentThread().interrupt();
+        }
+    }
 }
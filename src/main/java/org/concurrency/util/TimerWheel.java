@@ -0,0 +1,141 @@
+package org.concurrency.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 哈希时间轮：大量延迟相近的定时任务只需要一个驱动线程，添加和取消都是O(1)
+ *
+ * 时间轮由wheelSize个槽组成，每个槽是一个双向链表，每经过tickNanos指针前进一格，处理当前槽中到期的任务；
+ * 延迟超过一圈的任务留在槽中，等指针再次转到时才到期。
+ *
+ * 不是线程安全的，调用方负责同步（比如在连接池的锁内添加、取消和推进）
+ * @param <T> 到期时返回给调用方的对象
+ */
+public class TimerWheel<T> {
+
+    private final long tickNanos;
+    private final Timeout<T>[] wheel;
+    private final int mask;
+    private final long startTime;
+    /**
+     * 已经处理过的最后一格
+     */
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickNanos 每一格的时长，也是到期时间的精度
+     * @param wheelSize 槽的个数，会向上取整为2的幂
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tickNanos, int wheelSize) {
+        if (tickNanos <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickNanos and wheelSize must be positive");
+        }
+        int n = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = tickNanos;
+        this.wheel = new Timeout[n];
+        for (int i = 0; i < n; i++) {
+            //每个槽一个哨兵节点，插入和删除都不需要判断空链表
+            Timeout<T> head = new Timeout<>(null, null, 0);
+            head.prev = head;
+            head.next = head;
+            wheel[i] = head;
+        }
+        this.mask = n - 1;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * 添加一个在delayNanos之后到期的任务
+     * @param item
+     * @param delayNanos
+     * @return 可以用来取消的句柄
+     */
+    public Timeout<T> schedule(T item, long delayNanos) {
+        long deadline = tickOf(System.nanoTime() + delayNanos);
+        //已经处理过的格子不会再被处理，最早放到下一格
+        deadline = Math.max(deadline, currentTick + 1);
+        Timeout<T> timeout = new Timeout<>(this, item, deadline);
+        Timeout<T> head = wheel[(int) (deadline & mask)];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 把指针推进到当前时间，取出所有到期的任务
+     * @return 到期任务的item，没有时返回空列表
+     */
+    public List<T> advance() {
+        long nowTick = tickOf(System.nanoTime());
+        List<T> expired = new ArrayList<>(0);
+        //落后超过一圈时，每个槽只需要处理一遍
+        long ticks = Math.min(nowTick - currentTick, wheel.length);
+        for (long tick = nowTick - ticks + 1; tick <= nowTick; tick++) {
+            Timeout<T> head = wheel[(int) (tick & mask)];
+            Timeout<T> timeout = head.next;
+            while (timeout != head) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadline <= nowTick) {
+                    timeout.unlink();
+                    expired.add(timeout.item);
+                }
+                timeout = next;
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return expired;
+    }
+
+    /**
+     * 还没到期也没被取消的任务数
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - startTime) / tickNanos;
+    }
+
+    /**
+     * 时间轮中的一个任务，同时也是槽中双向链表的节点
+     * @param <T>
+     */
+    public static final class Timeout<T> {
+        private final TimerWheel<T> owner;
+        private final T item;
+        private final long deadline;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(TimerWheel<T> owner, T item, long deadline) {
+            this.owner = owner;
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务，已经到期或已经取消时什么也不做
+         */
+        public void cancel() {
+            if (next != null) {
+                unlink();
+            }
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+            owner.size--;
+        }
+    }
+}
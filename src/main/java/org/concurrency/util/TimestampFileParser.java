@@ -0,0 +1,238 @@
+package org.concurrency.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 并行解析大文件中每一行的时间戳
+ *
+ * 1. 按chunkSize把文件切成若干块，切分点调整到换行符之后，每一块都是完整的行
+ * 2. 每一块用FileChannel.map映射到内存，由ForkJoinPool并行处理，文件大于2GB时也不受单次映射大小的限制
+ * 3. 直接在映射的字节上找到时间戳所在的列，用TimestampParser解析成epoch毫秒，不创建String、Date等对象
+ *
+ * 时间戳所在的列由分隔符和列号指定，列号为0时时间戳在行首（此时分隔符不起作用）。
+ * 时间戳不合法或者某一行没有这一列时抛出IllegalArgumentException，异常信息中带有该行在文件中的位置
+ */
+public class TimestampFileParser {
+
+    /**
+     * 默认每块的大小
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final TimestampParser parser;
+    private final byte delimiter;
+    private final int column;
+    private final int chunkSize;
+
+    /**
+     * @param parser
+     * @param delimiter 列之间的分隔符，比如','或'\t'，不能是空格（时间戳中包含空格）
+     * @param column 时间戳所在的列，从0开始
+     */
+    public TimestampFileParser(TimestampParser parser, byte delimiter, int column) {
+        this(parser, delimiter, column, DEFAULT_CHUNK_SIZE);
+    }
+
+    public TimestampFileParser(TimestampParser parser, byte delimiter, int column, int chunkSize) {
+        if (column < 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("column must not be negative and chunkSize must be positive");
+        }
+        this.parser = parser;
+        this.delimiter = delimiter;
+        this.column = column;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * 每一行的时间戳回调，会被多个线程同时调用
+     */
+    public interface Sink {
+
+        /**
+         * @param lineOffset 该行在文件中的起始位置
+         * @param epochMillis
+         */
+        void accept(long lineOffset, long epochMillis);
+    }
+
+    /**
+     * 解析文件中每一行的时间戳，按行的顺序返回
+     * @param file
+     * @param pool
+     * @return
+     * @throws IOException
+     */
+    public long[] parse(Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            long[][] results = new long[bounds.length - 1][];
+            pool.invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1, results, null));
+            int total = 0;
+            for (long[] result : results) {
+                total += result.length;
+            }
+            long[] timestamps = new long[total];
+            int position = 0;
+            for (long[] result : results) {
+                System.arraycopy(result, 0, timestamps, position, result.length);
+                position += result.length;
+            }
+            return timestamps;
+        }
+    }
+
+    /**
+     * 解析文件中每一行的时间戳，交给sink处理；不同块的行会被不同的线程同时回调，同一块内按行的顺序回调
+     * @param file
+     * @param pool
+     * @param sink
+     * @throws IOException
+     */
+    public void parse(Path file, ForkJoinPool pool, Sink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel);
+            pool.invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1, null, sink));
+        }
+    }
+
+    /**
+     * 按chunkSize切分文件，每个切分点调整到下一个换行符之后
+     * @return 各块的边界，第i块为[bounds[i], bounds[i + 1])
+     */
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long position = 0;
+        while (size - position > chunkSize) {
+            long next = nextLineStart(channel, position + chunkSize, size, probe);
+            if (next >= size) {
+                break;
+            }
+            bounds.add(next);
+            position = next;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * 从from开始找到第一个换行符，返回它之后的位置
+     */
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long position = from;
+        while (position < size) {
+            probe.clear();
+            int n = channel.read(probe, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += n;
+        }
+        return size;
+    }
+
+    /**
+     * 处理第[from, to)块，块数多于1时一分为二
+     */
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final long[][] results;
+        private final Sink sink;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to, long[][] results, Sink sink) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.results = results;
+            this.sink = sink;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkTask(channel, bounds, from, mid, results, sink),
+                        new ChunkTask(channel, bounds, mid, to, results, sink));
+                return;
+            }
+            long start = bounds[from];
+            MappedByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, bounds[to] - start);
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to map " + start + "-" + bounds[to], e);
+            }
+            long[] timestamps = results != null ? new long[Math.max(16, buffer.limit() / 64)] : null;
+            int count = 0;
+            int limit = buffer.limit();
+            int lineStart = 0;
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                //跳过空行（包括只有\r的行）
+                if (lineEnd > lineStart && !(lineEnd - lineStart == 1 && buffer.get(lineStart) == '\r')) {
+                    long millis = parseLine(buffer, lineStart, lineEnd, start);
+                    if (timestamps != null) {
+                        if (count == timestamps.length) {
+                            timestamps = Arrays.copyOf(timestamps, timestamps.length * 2);
+                        }
+                        timestamps[count++] = millis;
+                    } else {
+                        sink.accept(start + lineStart, millis);
+                    }
+                }
+                lineStart = lineEnd + 1;
+            }
+            if (results != null) {
+                results[from] = Arrays.copyOf(timestamps, count);
+            }
+        }
+    }
+
+    private long parseLine(ByteBuffer buffer, int lineStart, int lineEnd, long chunkStart) {
+        int position = lineStart;
+        for (int c = 0; c < column; c++) {
+            while (position < lineEnd && buffer.get(position) != delimiter) {
+                position++;
+            }
+            position++;
+        }
+        if (position + TimestampParser.LENGTH > lineEnd) {
+            throw new IllegalArgumentException("line at offset " + (chunkStart + lineStart) + " has no timestamp in column " + column);
+        }
+        try {
+            return parser.parse(buffer, position);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("line at offset " + (chunkStart + lineStart) + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.concurrency.util;
+
+import org.concurrency.threadlocal.FastThreadLocal;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+
+/**
+ * "yyyy-MM-dd HH:mm:ss"（或"yyyy-MM-dd HH:mm:ss.SSS"）格式的时间戳格式化器，缓存当前这一秒已经格式化好的字符
+ *
+ * 日志、序列化等场景下，大量的调用落在同一秒内，格式化结果的前19个字符完全相同：
+ * 1. 每个线程缓存最近一次格式化的秒以及它的19个字符，同一秒内直接复制，带毫秒时只需要写入最后3位数字
+ * 2. 秒变化时才重新计算年月日时分秒
+ * 3. 结果写入调用方提供的StringBuilder或byte[]，不创建String
+ *
+ * 缓存是每个线程各自的（FastThreadLocal），线程之间不共享任何可变状态，实例本身是线程安全的。
+ * 实例应当是static的长期对象，每个实例占用一个FastThreadLocal下标；只支持0000-9999年
+ */
+public final class TimestampFormatter {
+
+    /**
+     * "yyyy-MM-dd HH:mm:ss"的长度
+     */
+    private static final int SECOND_LENGTH = 19;
+    /**
+     * "yyyy-MM-dd HH:mm:ss.SSS"的长度
+     */
+    private static final int MILLIS_LENGTH = 23;
+
+    private static final int SECONDS_PER_DAY = 86400;
+    /**
+     * 0000-03-01到1970-01-01的天数
+     */
+    private static final long DAYS_0000_TO_1970 = 719468;
+
+    private final ZoneRules rules;
+    /**
+     * 固定偏移的时区的偏移秒数，否则为Integer.MIN_VALUE
+     */
+    private final int fixedOffset;
+    private final boolean millis;
+
+    private final FastThreadLocal<Cache> cache = FastThreadLocal.withInitial(Cache::new);
+
+    /**
+     * @param zone 时区
+     * @param millis 是否输出毫秒（".SSS"）
+     */
+    public TimestampFormatter(ZoneId zone, boolean millis) {
+        this.rules = zone.getRules();
+        this.fixedOffset = rules.isFixedOffset() ? rules.getOffset(Instant.EPOCH).getTotalSeconds() : Integer.MIN_VALUE;
+        this.millis = millis;
+    }
+
+    /**
+     * 格式化后的长度，19或23
+     * @return
+     */
+    public int length() {
+        return millis ? MILLIS_LENGTH : SECOND_LENGTH;
+    }
+
+    /**
+     * 追加到sb的末尾
+     * @param epochMillis
+     * @param sb
+     */
+    public void format(long epochMillis, StringBuilder sb) {
+        Cache c = refresh(epochMillis);
+        if (millis) {
+            int ms = (int) Math.floorMod(epochMillis, 1000L);
+            char[] chars = c.chars;
+            chars[20] = (char) ('0' + ms / 100);
+            chars[21] = (char) ('0' + ms / 10 % 10);
+            chars[22] = (char) ('0' + ms % 10);
+        }
+        sb.append(c.chars, 0, length());
+    }
+
+    /**
+     * 写入dest从offset开始的位置（ASCII）
+     * @param epochMillis
+     * @param dest
+     * @param offset
+     * @return 写入后的下一个位置
+     */
+    public int format(long epochMillis, byte[] dest, int offset) {
+        Cache c = refresh(epochMillis);
+        System.arraycopy(c.bytes, 0, dest, offset, SECOND_LENGTH);
+        if (!millis) {
+            return offset + SECOND_LENGTH;
+        }
+        int ms = (int) Math.floorMod(epochMillis, 1000L);
+        dest[offset + 19] = '.';
+        dest[offset + 20] = (byte) ('0' + ms / 100);
+        dest[offset + 21] = (byte) ('0' + ms / 10 % 10);
+        dest[offset + 22] = (byte) ('0' + ms % 10);
+        return offset + MILLIS_LENGTH;
+    }
+
+    /**
+     * 返回新的String，只在确实需要String时使用
+     * @param epochMillis
+     * @return
+     */
+    public String format(long epochMillis) {
+        StringBuilder sb = new StringBuilder(length());
+        format(epochMillis, sb);
+        return sb.toString();
+    }
+
+    /**
+     * 秒变化时重新计算当前线程缓存的19个字符
+     */
+    private Cache refresh(long epochMillis) {
+        long second = Math.floorDiv(epochMillis, 1000L);
+        Cache c = cache.get();
+        if (second == c.second) {
+            return c;
+        }
+        int offset = fixedOffset != Integer.MIN_VALUE ? fixedOffset : rules.getOffset(Instant.ofEpochSecond(second)).getTotalSeconds();
+        long localSeconds = second + offset;
+        long epochDay = Math.floorDiv(localSeconds, (long) SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(localSeconds, (long) SECONDS_PER_DAY);
+
+        //epoch天数转公历日期，把3月作为一年的第一个月，闰日落在年末
+        long days = epochDay + DAYS_0000_TO_1970;
+        long era = Math.floorDiv(days, 146097L);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (int) ((5 * dayOfYear + 2) / 153);
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        byte[] b = c.bytes;
+        write4(b, 0, year);
+        b[4] = '-';
+        write2(b, 5, month);
+        b[7] = '-';
+        write2(b, 8, day);
+        b[10] = ' ';
+        write2(b, 11, secondOfDay / 3600);
+        b[13] = ':';
+        write2(b, 14, secondOfDay / 60 % 60);
+        b[16] = ':';
+        write2(b, 17, secondOfDay % 60);
+        for (int i = 0; i < SECOND_LENGTH; i++) {
+            c.chars[i] = (char) b[i];
+        }
+        c.chars[19] = '.';
+        c.second = second;
+        return c;
+    }
+
+    private static void write2(byte[] b, int offset, int value) {
+        b[offset] = (byte) ('0' + value / 10);
+        b[offset + 1] = (byte) ('0' + value % 10);
+    }
+
+    private static void write4(byte[] b, int offset, int value) {
+        b[offset] = (byte) ('0' + value / 1000 % 10);
+        b[offset + 1] = (byte) ('0' + value / 100 % 10);
+        b[offset + 2] = (byte) ('0' + value / 10 % 10);
+        b[offset + 3] = (byte) ('0' + value % 10);
+    }
+
+    /**
+     * 每个线程的缓存：最近一次格式化的秒，以及它的"yyyy-MM-dd HH:mm:ss"
+     */
+    private static final class Cache {
+        long second = Long.MIN_VALUE;
+        final byte[] bytes = new byte[SECOND_LENGTH];
+        final char[] chars = new char[MILLIS_LENGTH];
+    }
+}
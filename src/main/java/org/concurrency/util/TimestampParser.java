@@ -0,0 +1,276 @@
+package org.concurrency.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * "yyyy-MM-dd HH:mm:ss"格式的时间戳解析器，直接返回epoch毫秒
+ *
+ * 和SimpleDateFormat相比：
+ * 1. 没有可变状态，一个实例可以被任意多个线程同时使用，不需要加锁或ThreadLocal
+ * 2. 直接从CharSequence、byte[]或ByteBuffer的指定位置读取固定的19个字符，不创建String、Date、Calendar等对象
+ *
+ * 时区：固定偏移的时区直接减去偏移；有夏令时的时区在构造时把[1900, 2100)年之间的所有偏移变化预先计算成数组，
+ * 解析时二分查找，不在这个范围内的时间交给java.time处理。夏令时开始时不存在的本地时间向后调整，
+ * 结束时重复的本地时间取较早的偏移，和LocalDateTime.atZone的结果一致。
+ *
+ * 格式不合法时抛出IllegalArgumentException
+ */
+public final class TimestampParser {
+
+    /**
+     * "yyyy-MM-dd HH:mm:ss"的长度
+     */
+    public static final int LENGTH = 19;
+
+    private static final int SECONDS_PER_DAY = 86400;
+    /**
+     * 0000-03-01到1970-01-01的天数
+     */
+    private static final long DAYS_0000_TO_1970 = 719468;
+
+    private static final int TABLE_FROM_YEAR = 1900;
+    private static final int TABLE_TO_YEAR = 2100;
+
+    private final ZoneId zone;
+    private final ZoneRules rules;
+    /**
+     * 偏移变化的本地时间（epoch秒），本地时间大于等于switchAt[i]时使用offsets[i + 1]，小于switchAt[0]时使用offsets[0]；
+     * 固定偏移的时区为空数组
+     */
+    private final long[] switchAt;
+    private final int[] offsets;
+    private final long tableFrom;
+    private final long tableTo;
+
+    /**
+     * @param zone 时间戳所在的时区
+     */
+    public TimestampParser(ZoneId zone) {
+        this.zone = zone;
+        this.rules = zone.getRules();
+        this.tableFrom = LocalDateTime.of(TABLE_FROM_YEAR, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        this.tableTo = LocalDateTime.of(TABLE_TO_YEAR, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        if (rules.isFixedOffset()) {
+            this.switchAt = new long[0];
+            this.offsets = new int[] {rules.getOffset(Instant.EPOCH).getTotalSeconds()};
+            return;
+        }
+        List<ZoneOffsetTransition> transitions = new ArrayList<>();
+        //从范围开始前一天开始找，保证第一个偏移覆盖整个范围
+        Instant instant = Instant.ofEpochSecond(tableFrom - SECONDS_PER_DAY);
+        ZoneOffsetTransition transition;
+        while ((transition = rules.nextTransition(instant)) != null && transition.toEpochSecond() < tableTo + SECONDS_PER_DAY) {
+            transitions.add(transition);
+            instant = transition.getInstant();
+        }
+        this.switchAt = new long[transitions.size()];
+        this.offsets = new int[transitions.size() + 1];
+        offsets[0] = rules.getOffset(Instant.ofEpochSecond(tableFrom - SECONDS_PER_DAY)).getTotalSeconds();
+        for (int i = 0; i < transitions.size(); i++) {
+            ZoneOffsetTransition t = transitions.get(i);
+            int before = t.getOffsetBefore().getTotalSeconds();
+            int after = t.getOffsetAfter().getTotalSeconds();
+            //夏令时开始（after > before）时，不存在的本地时间仍按before计算，相当于向后调整；
+            //结束（after < before）时，重复的本地时间按before计算，即取较早的偏移
+            switchAt[i] = t.toEpochSecond() + Math.max(before, after);
+            offsets[i + 1] = after;
+        }
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * 解析text开头的19个字符
+     * @param text
+     * @return epoch毫秒
+     */
+    public long parse(CharSequence text) {
+        return parse(text, 0);
+    }
+
+    /**
+     * 解析text从offset开始的19个字符
+     * @param text
+     * @param offset
+     * @return epoch毫秒
+     */
+    public long parse(CharSequence text, int offset) {
+        if (offset < 0 || text.length() - offset < LENGTH) {
+            throw invalid(text, offset);
+        }
+        long fields = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            fields = accept(fields, i, text.charAt(offset + i));
+            if (fields < 0) {
+                throw invalid(text, offset);
+            }
+        }
+        return toEpochMillis(fields, text, offset);
+    }
+
+    /**
+     * 解析bytes从offset开始的19个字节（ASCII）
+     * @param bytes
+     * @param offset
+     * @return epoch毫秒
+     */
+    public long parse(byte[] bytes, int offset) {
+        if (offset < 0 || bytes.length - offset < LENGTH) {
+            throw invalid(bytes, offset);
+        }
+        long fields = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            fields = accept(fields, i, (char) bytes[offset + i]);
+            if (fields < 0) {
+                throw invalid(bytes, offset);
+            }
+        }
+        return toEpochMillis(fields, bytes, offset);
+    }
+
+    /**
+     * 解析buffer从绝对位置index开始的19个字节（ASCII），不改变buffer的position，可以直接读取内存映射的文件
+     * @param buffer
+     * @param index
+     * @return epoch毫秒
+     */
+    public long parse(ByteBuffer buffer, int index) {
+        if (index < 0 || buffer.limit() - index < LENGTH) {
+            throw invalid(buffer, index);
+        }
+        long fields = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            fields = accept(fields, i, (char) buffer.get(index + i));
+            if (fields < 0) {
+                throw invalid(buffer, index);
+            }
+        }
+        return toEpochMillis(fields, buffer, index);
+    }
+
+    /**
+     * 逐个字符累积数字：分隔符位置必须是对应的分隔符，其余位置必须是数字，把所有数字拼成一个14位的十进制数yyyyMMddHHmmss
+     * @return 累积后的值，字符不合法时返回-1
+     */
+    private static long accept(long fields, int position, char c) {
+        switch (position) {
+            case 4:
+            case 7:
+                return c == '-' ? fields : -1;
+            case 10:
+                return c == ' ' ? fields : -1;
+            case 13:
+            case 16:
+                return c == ':' ? fields : -1;
+            default:
+                int digit = c - '0';
+                return digit >= 0 && digit <= 9 ? fields * 10 + digit : -1;
+        }
+    }
+
+    /**
+     * @param fields yyyyMMddHHmmss
+     * @param source 只在格式不合法时用于生成异常信息
+     */
+    private long toEpochMillis(long fields, Object source, int offset) {
+        int second = (int) (fields % 100);
+        fields /= 100;
+        int minute = (int) (fields % 100);
+        fields /= 100;
+        int hour = (int) (fields % 100);
+        fields /= 100;
+        int day = (int) (fields % 100);
+        fields /= 100;
+        int month = (int) (fields % 100);
+        int year = (int) (fields / 100);
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(source, offset);
+        }
+        long localSeconds = epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+        if (switchAt.length > 0 && (localSeconds < tableFrom || localSeconds >= tableTo)) {
+            return LocalDateTime.of(year, month, day, hour, minute, second).atZone(zone).toInstant().toEpochMilli();
+        }
+        return (localSeconds - offsetSeconds(localSeconds)) * 1000;
+    }
+
+    private int offsetSeconds(long localSeconds) {
+        long[] switchAt = this.switchAt;
+        if (switchAt.length == 0) {
+            return offsets[0];
+        }
+        //找到最后一个小于等于localSeconds的switchAt
+        int low = 0;
+        int high = switchAt.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (switchAt[mid] <= localSeconds) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offsets[low];
+    }
+
+    /**
+     * 公历日期到epoch天数（1970-01-01为0），把3月作为一年的第一个月，闰日落在年末
+     */
+    static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static IllegalArgumentException invalid(Object source, int offset) {
+        String text;
+        if (source instanceof CharSequence) {
+            CharSequence cs = (CharSequence) source;
+            text = cs.subSequence(Math.max(0, Math.min(offset, cs.length())), Math.min(cs.length(), Math.max(0, offset) + LENGTH)).toString();
+        } else if (source instanceof byte[]) {
+            byte[] bytes = (byte[]) source;
+            int from = Math.max(0, Math.min(offset, bytes.length));
+            text = new String(bytes, from, Math.min(bytes.length, from + LENGTH) - from, StandardCharsets.US_ASCII);
+        } else {
+            ByteBuffer buffer = (ByteBuffer) source;
+            StringBuilder sb = new StringBuilder();
+            for (int i = Math.max(0, offset); i < Math.min(buffer.limit(), Math.max(0, offset) + LENGTH); i++) {
+                sb.append((char) buffer.get(i));
+            }
+            text = sb.toString();
+        }
+        return new IllegalArgumentException("invalid timestamp at offset " + offset + ", expected yyyy-MM-dd HH:mm:ss: \"" + text + "\"");
+    }
+}